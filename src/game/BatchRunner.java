@@ -0,0 +1,175 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Plays many headless games at once for balancing and regression runs.
+ * Every combination of level and monitor speed is played from a range
+ * of seeds by an automated player, and the win rate, time to win and
+ * catch rate of each combination are reported.  Every game builds its
+ * own level, policy and random generator and writes only to its own
+ * result slot, so the runs share nothing and spread over all cores.
+ * Guests arrive by swept tests, so the games can also be stepped
+ * several frames at a time with -stepFrames for a quicker, coarser
+ * batch.
+ *
+ * Usage: BatchRunner [-runs N] [-policy scripted|random] [-threads T]
+ *                    [-levels 1,2,3] [-monitorSpeeds 130,150] [-seconds S]
+ *                    [-stepFrames F]
+ *
+ * Every installed level is played unless -levels picks some.
+ */
+class BatchRunner {
+	public static final int WIN = 0;
+	public static final int CAUGHT = 1;
+	public static final int TIMEOUT = 2;
+
+	private int runs = 200;
+	private String policy = "scripted";
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int[] levels = IntStream.rangeClosed(1, LevelFactory.count()).toArray();
+	private double[] monitorSpeeds = {Level.MONITOR_SPEED};
+	private double seconds = 300;
+	private int stepFrames = 1;
+
+	private BatchRunner() {
+	}
+
+	private static PlayerPolicy makePolicy(String name, long seed) {
+		if(name.equals("random")) return new RandomPolicy(seed);
+		return new ScriptedPolicy();
+	}
+
+	/**
+	 * plays one game to a win, a catch or the time limit
+	 * @param level the level to play
+	 * @param policy the automated player
+	 * @param maxTicks the time limit in ticks
+	 * @return {outcome, ticks played}
+	 */
+	public static int[] play(Level level, PlayerPolicy policy, int maxTicks) {
+		return play(level, policy, maxTicks, Main.SECOND_DELAY);
+	}
+
+	/**
+	 * plays one game to a win, a catch or the time limit, with
+	 * steps of any length
+	 * @param level the level to play, with its tick length set to dt
+	 * @param policy the automated player
+	 * @param maxTicks the time limit in ticks
+	 * @param dt the length of one tick
+	 * @return {outcome, ticks played}
+	 */
+	public static int[] play(Level level, PlayerPolicy policy, int maxTicks, double dt) {
+		for(int tick = 0; tick < maxTicks; tick++) {
+			policy.act(level);
+			level.step(dt);
+			if(level.lose()) return new int[] {CAUGHT, tick + 1};
+			if(level.win()) return new int[] {WIN, tick + 1};
+		}
+		return new int[] {TIMEOUT, maxTicks};
+	}
+
+	private void run() throws Exception {
+		double dt = stepFrames * Main.SECOND_DELAY;
+		int maxTicks = (int) (seconds / dt);
+		ArrayList<int[]> configs = new ArrayList<int[]>();
+		for(int level : levels) {
+			for(int speed = 0; speed < monitorSpeeds.length; speed++) configs.add(new int[] {level, speed});
+		}
+		int games = configs.size() * runs;
+		int[][] results = new int[games][];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		pool.submit(() -> IntStream.range(0, games).parallel().forEach(game -> {
+			int[] config = configs.get(game / runs);
+			long seed = game % runs;
+			Level level = LevelFactory.build(config[0], seed,
+					monitorSpeeds[config[1]], Level.PLAYER_SPEED, Level.GUEST_SPEED);
+			level.setTickLength(dt);
+			results[game] = play(level, makePolicy(policy, ~seed), maxTicks, dt);
+		})).get();
+		double wall = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		long totalTicks = 0;
+		System.out.printf("%5s %13s %6s %9s %12s %7s %7s%n", "level", "monitorSpeed", "games", "win rate",
+				"time to win", "caught", "timeout");
+		for(int c = 0; c < configs.size(); c++) {
+			int wins = 0;
+			int caught = 0;
+			long winTicks = 0;
+			for(int game = c*runs; game < (c + 1)*runs; game++) {
+				totalTicks += results[game][1];
+				if(results[game][0] == WIN) {
+					wins++;
+					winTicks += results[game][1];
+				}
+				if(results[game][0] == CAUGHT) caught++;
+			}
+			System.out.printf("%5d %13.1f %6d %8.1f%% %11.1fs %6.1f%% %6.1f%%%n", configs.get(c)[0],
+					monitorSpeeds[configs.get(c)[1]], runs, 100.0*wins/runs,
+					wins == 0 ? 0 : winTicks * dt / wins,
+					100.0*caught/runs, 100.0*(runs - wins - caught)/runs);
+		}
+		System.out.printf("%d games, %d ticks in %.2fs on %d threads: %.0f ticks/s%n", games, totalTicks,
+				wall, threads, totalTicks / wall);
+	}
+
+	//the level numbers of a comma separated list, each one that is installed
+	private static int[] parseLevels(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i]);
+			if(values[i] < 1 || values[i] > LevelFactory.count()) {
+				throw new IllegalArgumentException("No level " + values[i] + "; levels run from 1 to "
+						+ LevelFactory.count());
+			}
+		}
+		return values;
+	}
+
+	private static double[] parseDoubles(String list) {
+		String[] parts = list.split(",");
+		double[] values = new double[parts.length];
+		for(int i = 0; i < parts.length; i++) values[i] = Double.parseDouble(parts[i]);
+		return values;
+	}
+
+	/**
+	 * Runs the batch described by the command line.
+	 */
+	public static void main(String[] args) throws Exception {
+		BatchRunner batch = new BatchRunner();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			switch(args[i]) {
+				case "-runs":
+					batch.runs = Integer.parseInt(args[i + 1]);
+					break;
+				case "-policy":
+					batch.policy = args[i + 1];
+					break;
+				case "-threads":
+					batch.threads = Integer.parseInt(args[i + 1]);
+					break;
+				case "-levels":
+					batch.levels = parseLevels(args[i + 1]);
+					break;
+				case "-monitorSpeeds":
+					batch.monitorSpeeds = parseDoubles(args[i + 1]);
+					break;
+				case "-seconds":
+					batch.seconds = Double.parseDouble(args[i + 1]);
+					break;
+				case "-stepFrames":
+					batch.stepFrames = Integer.parseInt(args[i + 1]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		batch.run();
+	}
+}
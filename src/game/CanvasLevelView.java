@@ -0,0 +1,118 @@
+package game;
+
+import java.util.Arrays;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+/**
+ * Draws a Level onto a single Canvas instead of one node per object.
+ * The scene graph then holds one node however big the crowd is, and
+ * every guest is a blit out of the shared sprite atlas.  The guests of
+ * a dormant cluster are one blit labelled with their head count.  The
+ * text drawn is only rebuilt when it changes, so a frame allocates
+ * nothing of its own.
+ */
+class CanvasLevelView implements LevelRenderer {
+
+	private Level level;
+	private Canvas canvas;
+	private GraphicsContext gc;
+	private Image atlas;
+	private double[] guestRegion;
+	private double[] playerRegion;
+	private double[] monitorRegion;
+	private String[] countTexts = new String[0];
+	private int shownScore = -1;
+	private String scoreText;
+
+	/**
+	 * adds the canvas of the room to the scene
+	 * @param root the node the room is drawn in
+	 * @param level the level to draw
+	 * @param width the width of the room
+	 * @param height the height of the room
+	 */
+	public CanvasLevelView(Group root, Level level, int width, int height) {
+		this.level = level;
+		canvas = new Canvas(width, height);
+		gc = canvas.getGraphicsContext2D();
+		gc.setFont(Font.font("System", 12));
+		atlas = SpriteCache.getAtlas();
+		guestRegion = region("guest");
+		playerRegion = region("player");
+		monitorRegion = region("monitor");
+		root.getChildren().add(canvas);
+	}
+
+	//source x, y, width, height in the atlas, then drawn width and height
+	private static double[] region(String code) {
+		Rectangle2D r = SpriteCache.getRegion(code);
+		return new double[] {r.getMinX(), r.getMinY(), r.getWidth(), r.getHeight(),
+				SpriteCache.getWidth(code), PartyGuest.SPRITE_SIZE};
+	}
+
+	private void blit(double[] r, double x, double y) {
+		gc.drawImage(atlas, r[0], r[1], r[2], r[3], x - r[4]/2, y - r[5]/2, r[4], r[5]);
+	}
+
+	private void fillCircle(double x, double y, double radius) {
+		gc.fillOval(x - radius, y - radius, 2*radius, 2*radius);
+	}
+
+	private void drawImpostors(LevelSnapshot snapshot) {
+		gc.setFill(Color.BLACK);
+		for(GuestCluster cluster : level.getClusters()) {
+			int dormant = snapshot.getClusterDormant(cluster.getId());
+			if(dormant == 0) continue;
+			blit(guestRegion, cluster.getCenterX(), cluster.getCenterY());
+			gc.fillText(countText(dormant),
+					cluster.getCenterX() + PartyGuest.SPRITE_SIZE/2, cluster.getCenterY());
+		}
+	}
+
+	//head counts stay below a few dozen, so each label is made once and reused every frame
+	private String countText(int count) {
+		if(count >= countTexts.length) countTexts = Arrays.copyOf(countTexts, count + 1);
+		if(countTexts[count] == null) countTexts[count] = Integer.toString(count);
+		return countTexts[count];
+	}
+
+	@Override
+	public void update(LevelSnapshot snapshot, double alpha) {
+		gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+		gc.setFill(Color.BLUE);
+		for(GuestCluster cluster : level.getClusters()) {
+			gc.setGlobalAlpha(Math.max(0, snapshot.getClusterOpacity(cluster.getId())));
+			fillCircle(cluster.getCenterX(), cluster.getCenterY(), GuestCluster.RADIUS);
+		}
+		gc.setGlobalAlpha(1);
+		if(level.isCrowdLod()) drawImpostors(snapshot);
+		for(int id = 0; id < snapshot.getGuestCount(); id++) {
+			if(snapshot.isInPlay(id)) blit(guestRegion, snapshot.getX(id, alpha), snapshot.getY(id, alpha));
+		}
+		gc.setFill(snapshot.isPunchBowlPoisoned() ? Color.GREEN : Color.RED);
+		fillCircle(level.getPunchBowlX(), level.getPunchBowlY(), Level.BOWL_RADIUS);
+		blit(playerRegion, snapshot.getPlayerX(alpha), snapshot.getPlayerY(alpha));
+		gc.setFill(Color.YELLOW);
+		for(int i = 0; i < snapshot.getMonitorCount(); i++) {
+			double monitorX = snapshot.getMonitorX(i, alpha);
+			double monitorY = snapshot.getMonitorY(i, alpha);
+			blit(monitorRegion, monitorX, monitorY);
+			gc.setGlobalAlpha(0.2);
+			fillCircle(monitorX, monitorY - PartyGuest.FOV_OFFSET_Y, PartyGuest.FOV_RADIUS);
+			gc.setGlobalAlpha(1);
+		}
+		gc.setFill(Color.BLACK);
+		if(snapshot.getGuestPoisoned() != shownScore) {
+			shownScore = snapshot.getGuestPoisoned();
+			scoreText = snapshot.getScoreText();
+		}
+		gc.fillText(scoreText, 500, 25);
+	}
+}
@@ -0,0 +1,132 @@
+package game;
+
+/**
+ * Measures how many environment steps per second LevelEnv and
+ * VectorLevelEnv sustain, which bounds how fast a learner can train
+ * against the game.  Every step takes a random action and reads the
+ * observation, and episodes reset as they end, as in training.
+ *
+ * Each level is measured first as a single environment on one thread,
+ * then as batches of -envs environments, one batch per thread on
+ * -threads threads.  Steps per second are reported in total and per
+ * thread, which is per core as long as there are no more threads than
+ * cores.
+ *
+ * Usage: EnvBenchmark [-levels 1,2,3] [-envs N] [-threads T]
+ *                     [-frameSkip F] [-seconds S]
+ */
+class EnvBenchmark {
+	public static final long WARMUP_NANOS = 1000000000L;
+
+	private int[] levels = {1, 2, 3};
+	private int envs = 64;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int frameSkip = 1;
+	private double seconds = 5;
+
+	private EnvBenchmark() {
+	}
+
+	//steps one environment with random actions for a while and returns the steps taken
+	private long single(int number, long nanos) {
+		LevelEnv env = new LevelEnv(number);
+		env.setFrameSkip(frameSkip);
+		LevelRandom random = new LevelRandom(number);
+		double[] observation = new double[env.getObservationSize()];
+		env.reset(random.nextLong());
+		long steps = 0;
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) {
+			for(int i = 0; i < 256; i++) {
+				env.step(random.nextInt(LevelEnv.ACTIONS));
+				if(env.isDone()) env.reset(random.nextLong());
+				env.observe(observation, 0);
+			}
+			steps += 256;
+		}
+		return steps;
+	}
+
+	//steps a batch in lockstep with random actions for a while and returns the environment steps taken
+	private long batch(int number, long seed, long nanos) {
+		VectorLevelEnv batch = new VectorLevelEnv(number, envs);
+		batch.setFrameSkip(frameSkip);
+		LevelRandom random = new LevelRandom(seed);
+		int[] actions = new int[envs];
+		double[] rewards = new double[envs];
+		boolean[] dones = new boolean[envs];
+		double[] observations = new double[envs*batch.getObservationSize()];
+		batch.reset(random.nextLong());
+		long steps = 0;
+		long end = System.nanoTime() + nanos;
+		while(System.nanoTime() < end) {
+			for(int i = 0; i < envs; i++) actions[i] = random.nextInt(LevelEnv.ACTIONS);
+			batch.step(actions, rewards, dones);
+			batch.observe(observations);
+			steps += envs;
+		}
+		return steps;
+	}
+
+	//runs a batch on every thread at once and returns the environment steps taken by all of them
+	private long batches(int number, long nanos) throws InterruptedException {
+		long[] steps = new long[threads];
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			int slot = t;
+			workers[t] = new Thread(() -> steps[slot] = batch(number, slot, nanos));
+			workers[t].start();
+		}
+		long total = 0;
+		for(int t = 0; t < threads; t++) {
+			workers[t].join();
+			total += steps[t];
+		}
+		return total;
+	}
+
+	private void run() throws InterruptedException {
+		long nanos = (long) (seconds*1e9);
+		System.out.printf("%5s %-22s %14s %16s%n", "level", "mode", "steps/s", "steps/s/thread");
+		for(int number : levels) {
+			single(number, WARMUP_NANOS);
+			double rate = single(number, nanos)*1e9/nanos;
+			System.out.printf("%5d %-22s %14.0f %16.0f%n", number, "single", rate, rate);
+			batches(number, WARMUP_NANOS);
+			rate = batches(number, nanos)*1e9/nanos;
+			System.out.printf("%5d %-22s %14.0f %16.0f%n", number, envs + " envs x " + threads + " threads",
+					rate, rate/threads);
+		}
+	}
+
+	/**
+	 * Runs the benchmark described by the command line.
+	 */
+	public static void main(String[] args) throws Exception {
+		EnvBenchmark benchmark = new EnvBenchmark();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			switch(args[i]) {
+				case "-levels":
+					String[] parts = args[i + 1].split(",");
+					benchmark.levels = new int[parts.length];
+					for(int l = 0; l < parts.length; l++) benchmark.levels[l] = Integer.parseInt(parts[l]);
+					break;
+				case "-envs":
+					benchmark.envs = Integer.parseInt(args[i + 1]);
+					break;
+				case "-threads":
+					benchmark.threads = Integer.parseInt(args[i + 1]);
+					break;
+				case "-frameSkip":
+					benchmark.frameSkip = Integer.parseInt(args[i + 1]);
+					break;
+				case "-seconds":
+					benchmark.seconds = Double.parseDouble(args[i + 1]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		benchmark.run();
+	}
+}
@@ -0,0 +1,148 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * A breadth-first distance map over a grid of the room, spread out from
+ * the cell of a target, that every chaser shares.  Each cell reached
+ * remembers which neighbour is one step closer to the target, so
+ * steering any number of chasers is one lookup each.  Cells covered by
+ * a safe cluster are walls.  The search stops as soon as every chaser
+ * that stands outside a wall has been reached, so it only covers the
+ * part of the room between the target and its farthest chaser.
+ */
+class FlowField {
+	public static final double CELL = GuestCluster.RADIUS/2;
+	public static final int NONE = -1;
+
+	//the eight neighbours, straight ones first, each next to its opposite
+	private static final int[] DX = {1, -1, 0, 0, 1, -1, 1, -1};
+	private static final int[] DY = {0, 0, 1, -1, 1, -1, -1, 1};
+	private static final double DIAGONAL = Math.sqrt(0.5);
+
+	private int cols;
+	private int rows;
+	private int[] wall;
+	private GuestCluster[] clusters;
+	private byte[] toward;
+	private int[] stamp;
+	private int[] queue;
+	private int[] chasersIn;
+	private int version;
+	private int targetCell = NONE;
+
+	/**
+	 * lays a grid over a room
+	 * @param width the width of the room
+	 * @param height the height of the room
+	 * @param clusters the clusters of the room indexed by id
+	 */
+	public FlowField(int width, int height, GuestCluster[] clusters) {
+		this.clusters = clusters;
+		cols = Math.max(1, (int) Math.ceil(width / CELL));
+		rows = Math.max(1, (int) Math.ceil(height / CELL));
+		wall = new int[cols*rows];
+		Arrays.fill(wall, NONE);
+		toward = new byte[cols*rows];
+		stamp = new int[cols*rows];
+		queue = new int[cols*rows];
+		chasersIn = new int[cols*rows];
+		for(GuestCluster c : clusters) {
+			int minCol = col(c.getCenterX() - GuestCluster.RADIUS);
+			int maxCol = col(c.getCenterX() + GuestCluster.RADIUS);
+			int minRow = row(c.getCenterY() - GuestCluster.RADIUS);
+			int maxRow = row(c.getCenterY() + GuestCluster.RADIUS);
+			for(int r = minRow; r <= maxRow; r++) {
+				for(int k = minCol; k <= maxCol; k++) {
+					if(c.contains((k + 0.5)*CELL, (r + 0.5)*CELL)) wall[r*cols + k] = c.getId();
+				}
+			}
+		}
+	}
+
+	private int col(double x) {
+		return Math.min(cols - 1, Math.max(0, (int) Math.floor(x / CELL)));
+	}
+
+	private int row(double y) {
+		return Math.min(rows - 1, Math.max(0, (int) Math.floor(y / CELL)));
+	}
+
+	/**
+	 * @return the cell a point falls in, clamped into the room
+	 */
+	public int cell(double x, double y) {
+		return row(y)*cols + col(x);
+	}
+
+	private boolean isWall(int cell) {
+		return wall[cell] != NONE && clusters[wall[cell]].isSafe();
+	}
+
+	/**
+	 * spreads the field out from a target until it reaches
+	 * every chaser
+	 * @param x x location of the target
+	 * @param y y location of the target
+	 * @param chasers the chasers to reach
+	 * @param count how many of the chasers to reach
+	 */
+	public void update(double x, double y, PartyGuest[] chasers, int count) {
+		version++;
+		targetCell = cell(x, y);
+		int left = 0;
+		for(int i = 0; i < count; i++) {
+			int m = cell(chasers[i].getX(), chasers[i].getY());
+			if(!isWall(m)) {
+				chasersIn[m]++;
+				left++;
+			}
+		}
+		int headIndex = 0;
+		int tail = 0;
+		queue[tail++] = targetCell;
+		stamp[targetCell] = version;
+		toward[targetCell] = NONE;
+		while(headIndex < tail && left > 0) {
+			int c = queue[headIndex++];
+			int r = c / cols;
+			int k = c % cols;
+			for(int d = 0; d < DX.length; d++) {
+				int nr = r + DY[d];
+				int nk = k + DX[d];
+				if(nr < 0 || nr >= rows || nk < 0 || nk >= cols) continue;
+				int n = nr*cols + nk;
+				if(stamp[n] == version || isWall(n)) continue;
+				stamp[n] = version;
+				//the neighbour steps back the way the search came
+				toward[n] = (byte) (d ^ 1);
+				queue[tail++] = n;
+			}
+			left -= chasersIn[c];
+		}
+		for(int i = 0; i < count; i++) {
+			chasersIn[cell(chasers[i].getX(), chasers[i].getY())] = 0;
+		}
+	}
+
+	/**
+	 * points a chaser one cell closer to the target along the
+	 * field, or straight at the target when it shares the
+	 * target's cell or the field did not reach it
+	 * @param chaser the chaser to steer
+	 * @param x x location of the target
+	 * @param y y location of the target
+	 * @param speed how fast the chaser should move
+	 */
+	public void steer(PartyGuest chaser, double x, double y, double speed) {
+		int c = cell(chaser.getX(), chaser.getY());
+		if(c == targetCell || stamp[c] != version || toward[c] == NONE) {
+			chaser.goToward(x, y, speed);
+			return;
+		}
+		int d = toward[c];
+		double scale = d < 4 ? speed : speed*DIAGONAL;
+		chaser.setxVol(DX[d]*scale);
+		chaser.setyVol(DY[d]*scale);
+	}
+}
@@ -0,0 +1,120 @@
+package game;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Times every phase of Level.step, the drawing of the level and the
+ * JavaFX pulse into one latency histogram each.  The level only holds a
+ * profiler while profiling is switched on, so with it off the cost is a
+ * null check per phase.
+ *
+ * A profiler is only ever touched by one thread.  The simulation times
+ * the phases of a step into its own, and copies of it are handed to the
+ * JavaFX thread, which times drawing into another and takes the step
+ * phases over from the copies with copySteps.
+ */
+class FrameProfiler {
+	public static final int MONITOR_CONTROL = 0;
+	public static final int TIMERS = 1;
+	public static final int SEND_FROM_PUNCH = 2;
+	public static final int PLAYER_AT_BOWL = 3;
+	public static final int UPDATE_PLAYER = 4;
+	public static final int UPDATE_MONITOR = 5;
+	public static final int DEGEN_CONTROL = 6;
+	public static final int PUNCH_RESET = 7;
+	public static final int STEP = 8;
+	public static final int RENDER = 9;
+	public static final int PULSE = 10;
+	public static final int INPUT_LATENCY = 11;
+	public static final String[] PHASES = {"monitorControl", "runTimers", "sendGuestsFromPunch",
+			"playerAtBowl", "updatePlayer", "updateMonitor", "clusterDegenControl",
+			"punchBowlReset", "step", "render", "pulse", "inputLatency"};
+
+	private LatencyHistogram[] histograms;
+
+	/**
+	 * makes a profiler with an empty histogram per phase
+	 */
+	public FrameProfiler() {
+		histograms = new LatencyHistogram[PHASES.length];
+		for(int i = 0; i < PHASES.length; i++) histograms[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * counts the time since start against a phase
+	 * @param phase one of the phase constants
+	 * @param start when the phase started, from System.nanoTime
+	 * @return now, which is when the next phase starts
+	 */
+	public long lap(int phase, long start) {
+		long now = System.nanoTime();
+		histograms[phase].record(now - start);
+		return now;
+	}
+
+	/**
+	 * counts a latency against a phase
+	 * @param phase one of the phase constants
+	 * @param nanos the latency
+	 */
+	public void record(int phase, long nanos) {
+		histograms[phase].record(nanos);
+	}
+
+	/**
+	 * makes every phase timed while stepping, which is all but
+	 * RENDER and PULSE, count what another profiler's does
+	 * @param other the profiler to copy from
+	 */
+	public void copySteps(FrameProfiler other) {
+		for(int i = 0; i < PHASES.length; i++) {
+			if(i != RENDER && i != PULSE) histograms[i].copyFrom(other.histograms[i]);
+		}
+	}
+
+	/**
+	 * makes every phase count what another profiler's does
+	 * @param other the profiler to copy from
+	 */
+	public void copyFrom(FrameProfiler other) {
+		for(int i = 0; i < PHASES.length; i++) histograms[i].copyFrom(other.histograms[i]);
+	}
+
+	/**
+	 * @return whether anything has been counted yet
+	 */
+	public boolean isEmpty() {
+		return histograms[STEP].getCount() == 0 && histograms[PULSE].getCount() == 0;
+	}
+
+	/**
+	 * @return a table of the p50, p99 and max of every phase,
+	 * in microseconds
+	 */
+	public String summary() {
+		StringBuilder s = new StringBuilder(String.format("%-20s %7s %7s %7s%n", "us", "p50", "p99", "max"));
+		for(int i = 0; i < PHASES.length; i++) {
+			LatencyHistogram h = histograms[i];
+			s.append(String.format("%-20s %7.1f %7.1f %7.1f%n", PHASES[i], h.getValueAtPercentile(50) / 1000.0,
+					h.getValueAtPercentile(99) / 1000.0, h.getMax() / 1000.0));
+		}
+		return s.toString();
+	}
+
+	/**
+	 * writes the percentile distribution of every phase to a file
+	 * @param path where to write
+	 */
+	public void export(Path path) throws IOException {
+		try(PrintStream out = new PrintStream(Files.newOutputStream(path))) {
+			for(int i = 0; i < PHASES.length; i++) {
+				out.println("# " + PHASES[i]);
+				histograms[i].outputPercentileDistribution(out);
+				out.println();
+			}
+		}
+	}
+}
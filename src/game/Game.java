@@ -1,5 +1,14 @@
 package game;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Group;
@@ -16,29 +25,39 @@ import javafx.scene.text.Text;
 class Game {
 
 	public static final String TITLE = "Poison the Punch";
-	public static final double PUNCH_BOWL_X = 300;
-	public static final double PUNCH_BOWL_Y = 300;
-	public static final double EXIT_X = 300;
-	public static final double EXIT_Y = 600;
-	public static final double PLAYER_X = 300;
-	public static final double PLAYER_Y = 500;
-	public static final double MONITOR_X = 50;
-	public static final double MONITOR_Y = 50;
-	public static final int[][] clusterMatrix = {//a pentagon of clusters
-										{300, 100},
-										{110, 238},
-										{182, 462},
-										{418, 462},
-										{490, 238}
-										};
+	public static final String RECORDING_DIR = "replays";
+	public static final String PROFILE_FILE = "profile.hgrm";
+	public static final int HUD_REFRESH_FRAMES = 30;
+	public static final long WRITE_WAIT_SECONDS = 5;
 
 	private Scene scene;
 	private Group root;
     private Level level;
+    private Simulation simulation;
+    private boolean passed;
+    private LevelRenderer view;
     private int width;
     private int height;
     private int currentLevel;
     private boolean godMode;
+    private boolean canvasRenderer;
+    private boolean checkpoints;
+    private LevelCheckpoint checkpoint;
+    private boolean wasSafe;
+    private Random seeds = new Random();
+    private InputRecording recording;
+    //writes finished recordings, so neither stepping nor drawing waits on the disk
+    private ExecutorService recordingWriter = Executors.newSingleThreadExecutor(r -> {
+    	Thread writer = new Thread(r, "recording writer");
+    	writer.setDaemon(true);
+    	return writer;
+    });
+    private FrameProfiler profiler = new FrameProfiler();
+    private FrameProfiler stepProfiler = new FrameProfiler();
+    private boolean profiling;
+    private Text profilerHud;
+    private int hudCountdown;
+    private long lastRender;
 
     /**
      * Returns name of the game.
@@ -61,78 +80,172 @@ class Game {
     	return scene;
     }
 
-    private void initLevel1() {
-    	currentLevel = 1;
+    private void initLevel(int number) {
+    	stopSimulation();
+    	saveRecording();
+    	currentLevel = number;
+    	passed = false;
     	root.getChildren().clear();
-    	level = new Level(root);
-    	level.setClusterMatrix(clusterMatrix);
-    	level.initClusters();
-    	level.initPunchBowl(PUNCH_BOWL_X, PUNCH_BOWL_X);
-    	level.initExit(EXIT_X, EXIT_Y);
-    	level.initPlayer(PLAYER_X, PLAYER_Y, root);
-    	level.initMonitor(MONITOR_X, MONITOR_Y, root);
+    	long seed = seeds.nextLong();
+    	level = LevelFactory.build(number, seed);
     	if(godMode) level.setGodMode(true);
+    	recording = new InputRecording(number, level.getWidth(), level.getHeight(), seed,
+    			Main.SECOND_DELAY, godMode);
+    	level.setRecording(recording);
+    	checkpoint = new LevelCheckpoint(level);
+    	wasSafe = false;
+    	simulation = new Simulation(this, level, Main.SECOND_DELAY);
+    	if(canvasRenderer) view = new CanvasLevelView(root, level, width, height);
+    	else view = new LevelView(root, level);
+    	profilerHud = new Text(380, 45, "");
+    	profilerHud.setFont(Font.font("Monospaced", 9));
+    	profilerHud.setVisible(profiling);
+    	root.getChildren().add(profilerHud);
+    	if(profiling) simulation.setProfiler(stepProfiler);
     	scene.setOnKeyPressed(e -> handleKeyPress(e.getCode()));
     	scene.setOnKeyReleased(e -> handleKeyRelease(e.getCode()));
+    	simulation.start();
+    }
+    /**
+     * Stops stepping the level being played, if any.  Until the next
+     * level starts, the level belongs to the JavaFX thread again.
+     */
+    public void stopSimulation() {
+    	if(simulation == null) return;
+    	simulation.stop();
+    	simulation = null;
+    }
+
+    //starts the current level over in place, keeping its nodes on screen
+    private void restartLevel() {
+    	saveRecording();
+    	long seed = seeds.nextLong();
+    	level.reset(seed);
+    	recording = new InputRecording(currentLevel, level.getWidth(), level.getHeight(), seed,
+    			Main.SECOND_DELAY, godMode);
+    	level.setRecording(recording);
     }
 
-    private void initLevel2() {
-    	initLevel1();
-    	currentLevel = 2;
-    	level.initDegenRegen();
+    //puts the level back as it was when the player last hid, keeping the keys held now
+    private void retryFromCheckpoint() {
+    	//play from a checkpoint can't be replayed from a seed, so recording stops until a restart
+    	saveRecording();
+    	int held = level.getInput();
+    	checkpoint.restore(level);
+    	level.setInput(held);
+    	wasSafe = true;
     }
 
-    private void initLevel3() {
-    	initLevel2();
-    	currentLevel = 3;
+    //ends the attempt in progress and has it written to the recording directory, so it can be replayed
+    private void saveRecording() {
+    	if(recording == null) return;
+    	level.setRecording(null);
+    	InputRecording finished = recording;
+    	recordingWriter.execute(() -> {
+    		try {
+    			Path dir = Paths.get(RECORDING_DIR);
+    			Files.createDirectories(dir);
+    			finished.write(dir.resolve(finished.getName() + ".rec"));
+    		}
+    		catch(IOException e) {
+    			System.err.println("Could not save the replay: " + e.getMessage());
+    		}
+    	});
+    	recording = null;
+    }
+    /**
+     * Waits a little for the recordings still being written, and writes
+     * no more after.  Call it once the simulation has stopped.
+     */
+    public void finishRecordings() {
+    	recordingWriter.shutdown();
+    	try {
+    		recordingWriter.awaitTermination(WRITE_WAIT_SECONDS, TimeUnit.SECONDS);
+    	}
+    	catch(InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
     }
     /**
-     * Step method passed as a frame to the TimeLine. Handles level animation and logic.
+     * Step method called on the simulation thread at a fixed rate. Handles
+     * level logic. The level runs the mechanics it was initialized with.
+     * Finished recordings are written on another thread, so a step never
+     * waits on the disk.
      * @param elaspedTime
+     * @param boundary the moment the step's slice of time ends,
+     * on the System.nanoTime clock; input up to it is applied first
      */
-    public void step(double elaspedTime) {
-    	switch(currentLevel) {
-    		case 1:
-    			stepLevel1(elaspedTime);
-    			if(level.lose()) initLevel1();
-    	    	if(level.win()) nextLevelButton();
-    			break;
-    		case 2:
-    			stepLevel2(elaspedTime);
-    			if(level.lose()) initLevel2();
-    	    	if(level.win()) nextLevelButton();
-    			break;
-    		case 3:
-    			stepLevel3(elaspedTime);
-    			if(level.lose()) initLevel3();
-    	    	if(level.win()) nextLevelButton();
-    			break;
-    		default:
-    			break;
+    public void step(double elaspedTime, long boundary) {
+    	level.pollInput(boundary);
+    	stepLevel(elaspedTime);
+    	if(checkpoints) {
+    		//the checkpoint is taken as the player hides, so a retry doesn't start in plain sight
+    		boolean safe = level.getPlayer().isSafe();
+    		if(safe && !wasSafe) checkpoint.save(level);
+    		wasSafe = safe;
+    	}
+    	if(level.lose()) {
+    		if(checkpoints && checkpoint.isTaken()) retryFromCheckpoint();
+    		else restartLevel();
+    	}
+    	if(level.win() && !passed) {
+    		passed = true;
+    		saveRecording();
+    		level.setGodMode(true);
+    		//unless the player left the level before the button could be shown
+    		Platform.runLater(() -> {
+    			if(passed) nextLevelButton();
+    		});
     	}
     }
 
-    private void stepLevel1(double elaspedTime) {
-    	level.showScore();
-    	level.controlMonitorCollisions(width, height);
-    	level.setMonitorVelocityAndPlayerSafety();
-    	if(level.getThirstTimer() == 0) level.sendGuestsToPunch();
-    	level.sendGuestsFromPunch(elaspedTime);
-    	if(level.punchBowlCollision(level.getPlayer())) level.setPunchBowlPoisoned(true);
-    	level.setClusterSafety();
-    	level.tickTimers();
-    	level.updatePlayer(elaspedTime);
-    	level.updateMonitor(elaspedTime);
+    private void stepLevel(double elaspedTime) {
+    	level.step(elaspedTime);
     }
-
-    private void stepLevel2(double elaspedTime) {
-       	stepLevel1(elaspedTime);
-    	level.clusterDegenControl();
+    /**
+     * Draws the latest step of the current level, if one is being played.
+     * @param now the time of the frame, on the System.nanoTime clock
+     */
+    public void render(long now) {
+    	if(simulation == null) return;
+    	long start = System.nanoTime();
+    	LevelSnapshot snapshot = simulation.latest();
+    	//the latest step is shown as it ends, one step behind the simulation
+    	double alpha = (double) (now - snapshot.getNanos()) / simulation.getStepNanos();
+    	view.update(snapshot, Math.min(1, Math.max(0, alpha)));
+    	if(profiling) {
+    		if(snapshot.hasProfile()) profiler.copySteps(snapshot.getProfile());
+    		profiler.lap(FrameProfiler.RENDER, start);
+    		if(lastRender != 0) profiler.record(FrameProfiler.PULSE, start - lastRender);
+    		lastRender = start;
+    		if(--hudCountdown <= 0) {
+    			profilerHud.setText(profiler.summary());
+    			hudCountdown = HUD_REFRESH_FRAMES;
+    		}
+    	}
     }
-
-    private void stepLevel3(double elaspedTime) {
-    	stepLevel2(elaspedTime);
-    	level.punchBowlReset();
+    //shows or hides the frame timings, and only times frames while they are shown
+    private void toggleProfiling() {
+    	profiling = !profiling;
+    	lastRender = 0;
+    	hudCountdown = 0;
+    	profilerHud.setVisible(profiling);
+    	if(simulation != null) simulation.setProfiler(profiling ? stepProfiler : null);
+    }
+    /**
+     * Writes the frame timings gathered so far, if any, to the profile file.
+     * Call it once the simulation has stopped.
+     */
+    public void exportProfile() {
+    	//the step timings are the simulation thread's until it stops
+    	if(simulation == null) profiler.copySteps(stepProfiler);
+    	if(profiler.isEmpty()) return;
+    	try {
+    		profiler.export(Paths.get(PROFILE_FILE));
+    	}
+    	catch(IOException e) {
+    		System.err.println("Could not save the frame timings: " + e.getMessage());
+    	}
     }
 
     private void initMenuButtons() {
@@ -144,7 +257,7 @@ class Game {
 
             @Override
             public void handle(ActionEvent event) {
-                initLevel1();
+                initLevel(1);
             }
         });
         Button level2Button = new Button("Start Level 2");
@@ -155,7 +268,7 @@ class Game {
 
             @Override
             public void handle(ActionEvent event) {
-                initLevel2();
+                initLevel(2);
             }
         });
         Button level3Button = new Button("Start Level 3");
@@ -166,7 +279,7 @@ class Game {
 
             @Override
             public void handle(ActionEvent event) {
-                initLevel3();
+                initLevel(3);
             }
         });
         godMode = false;
@@ -189,10 +302,36 @@ class Game {
             	}
             }
         });
+        Button canvasButton = new Button("canvas renderer");
+        canvasButton.setLayoutX(width*0.8);
+        canvasButton.setLayoutY(height*0.8 + 40);
+        canvasButton.setEffect(canvasRenderer ? shadow : glow);
+        canvasButton.setOnAction(new EventHandler<ActionEvent>() {
+
+            @Override
+            public void handle(ActionEvent event) {
+            	canvasRenderer = !canvasRenderer;
+            	canvasButton.setEffect(canvasRenderer ? shadow : glow);
+            }
+        });
+        Button checkpointButton = new Button("retry from checkpoint");
+        checkpointButton.setLayoutX(width*0.8);
+        checkpointButton.setLayoutY(height*0.8);
+        checkpointButton.setEffect(checkpoints ? shadow : glow);
+        checkpointButton.setOnAction(new EventHandler<ActionEvent>() {
+
+            @Override
+            public void handle(ActionEvent event) {
+            	checkpoints = !checkpoints;
+            	checkpointButton.setEffect(checkpoints ? shadow : glow);
+            }
+        });
         root.getChildren().add(level1Button);
         root.getChildren().add(level2Button);
         root.getChildren().add(level3Button);
         root.getChildren().add(godModeButton);
+        root.getChildren().add(canvasButton);
+        root.getChildren().add(checkpointButton);
     }
 
     private void showTitle() {
@@ -209,26 +348,34 @@ class Game {
     //puts instructions and icons on main menu
     private void initInstructions() {
     	showInstruction(400, 50, "Press E to return to this menu");
+    	showInstruction(400, 65, "Press P to show frame timings");
     	showInstruction(200, 100, "Control player with WASD or arrow keys.");
-    	PartyGuest p = new PartyGuest("player");
-    	p.setX(100);
-    	p.setY(100);
+    	GuestSprite p = new GuestSprite("player");
+    	p.moveTo(100, 100);
     	root.getChildren().add(p);
     	showInstruction(200, 150, "Poison the punch by walking into it.  The goal of the game is to make people sick. \nThe bowl can be refilled in level three.");
     	Circle pb = new Circle(100, 150, 20, Color.RED);
     	root.getChildren().add(pb);
     	showInstruction(200, 270, "Don't let the monitor catch you.");
-    	PartyGuest m = new PartyGuest("monitor");
-    	m.setX(100);
-    	m.setY(270);
+    	GuestSprite m = new GuestSprite("monitor");
+    	m.moveTo(100, 270);
     	root.getChildren().add(m);
     	showInstruction(200, 400, "Hide from the monitor in guest clusters.  Only clusters with more than 5 people will\nhide you.");
-    	GuestCluster gc = new GuestCluster(100, 400, root);
-    	gc.populate();
+    	GuestStore guests = new GuestStore((int) GuestCluster.GUEST_COUNT);
+    	GuestCluster gc = new GuestCluster(100, 400, 0, guests);
+    	guests.setClusters(new GuestCluster[] {gc});
+    	gc.populate(new LevelRandom(seeds.nextLong()));
     	gc.setSafe(true);
+    	LevelView.drawCluster(root, gc);
+    	for(int i = 0; i < guests.size(); i++) {
+    		LevelView.drawSprite(root, "guest", guests.getX(i), guests.getY(i));
+    	}
     }
 
     private void initMenu() {
+    	stopSimulation();
+    	saveRecording();
+    	passed = false;
     	root.getChildren().clear();
     	currentLevel = 0;
     	showTitle();
@@ -236,7 +383,6 @@ class Game {
     	initMenuButtons();
     }
     private void nextLevelButton() {
-    	level.setGodMode(true);
     	Button b = new Button("Level passed.  Click to continue.");
         b.setLayoutX(200);
         b.setLayoutY(300);
@@ -244,35 +390,29 @@ class Game {
 
             @Override
             public void handle(ActionEvent event) {
-            	switch(currentLevel) {
-        		case 1:
-        			initLevel2();
-        			level.setGodMode(godMode);
-        			break;
-        		case 2:
-        			initLevel3();
-        			level.setGodMode(godMode);
-        			break;
-        		case 3:
-        			initMenu();
-        			level.setGodMode(godMode);
-        			break;
-        		default:
-        			break;
-        	}
+            	if(currentLevel < LevelFactory.count()) initLevel(currentLevel + 1);
+            	else initMenu();
             }
         });
         root.getChildren().add(b);
     }
 
     private void handleKeyPress(KeyCode code) {
-        level.addInput(code.toString());
+        queueInput(code, true);
         if(code.toString().equals("E")) {
         	initMenu();
         }
+        else if(code.toString().equals("P")) {
+        	toggleProfiling();
+        }
     }
 
     private void handleKeyRelease(KeyCode code) {
-        level.removeInput(code.toString());
+        queueInput(code, false);
+    }
+
+    private void queueInput(KeyCode code, boolean pressed) {
+        int action = PlayerInput.actionFor(code.toString());
+        if(action != 0) level.getInputQueue().offer(action, pressed, System.nanoTime());
     }
 }
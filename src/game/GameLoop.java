@@ -0,0 +1,25 @@
+package game;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Draws the game on every JavaFX pulse.  The game is stepped by its
+ * Simulation on a thread of its own, so a pulse only draws the latest
+ * snapshot of the level, interpolated by how long ago it was taken.
+ */
+class GameLoop extends AnimationTimer {
+
+	private Game game;
+
+	/**
+	 * @param game the game to draw
+	 */
+	public GameLoop(Game game) {
+		this.game = game;
+	}
+
+	@Override
+	public void handle(long now) {
+		game.render(now);
+	}
+}
@@ -0,0 +1,221 @@
+package game;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts many parties in one process, each a ServerRoom with a Level of
+ * its own.  Every player who connects gets a room, which is stepped at
+ * the game's step rate by a shared scheduler with one worker per core,
+ * so a thousand rooms cost a thousand small tasks rather than a
+ * thousand threads.  A single network thread accepts players and reads
+ * their input; each room sends its own state after its step.
+ *
+ * Every few seconds the server reports how many rooms it is ticking,
+ * the ticks it managed against the ticks it owed, how many were late
+ * by more than a step, and what a tick costs, which gives the number
+ * of rooms one core could tick at the step rate.  The server is only
+ * keeping up while no tick is late.
+ *
+ * A player sends two bytes per press or release: the action, as a
+ * PlayerInput bit, and 1 for a press or 0 for a release.  The server
+ * sends each step as an int length followed by a SnapshotCodec frame
+ * of the room.
+ *
+ * Usage: GameServer [-port P] [-threads T] [-level N] [-seconds S]
+ */
+class GameServer {
+	public static final int DEFAULT_PORT = 7777;
+	public static final int INPUT_SIZE = 2;
+	public static final long REPORT_NANOS = 5000000000L;
+	public static final long STEP_NANOS = (long) (Main.SECOND_DELAY*1e9);
+
+	private int port = DEFAULT_PORT;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int levelNumber = 1;
+	private double seconds;
+	private ServerSocketChannel listener;
+	private Selector selector;
+	private ScheduledThreadPoolExecutor scheduler;
+	private volatile boolean running;
+	private LevelRandom seeds = new LevelRandom(System.nanoTime());
+	private AtomicInteger rooms = new AtomicInteger();
+	private LongAdder ticks = new LongAdder();
+	private LongAdder lateTicks = new LongAdder();
+	private LongAdder droppedFrames = new LongAdder();
+	private LongAdder busyNanos = new LongAdder();
+	private LongAccumulator maxLateness = new LongAccumulator(Math::max, 0);
+
+	private GameServer() {
+	}
+
+	/**
+	 * @param port the port to listen on, or 0 for any free one
+	 * @param threads the number of workers ticking the rooms
+	 * @param levelNumber the level every room plays
+	 */
+	public GameServer(int port, int threads, int levelNumber) {
+		this.port = port;
+		this.threads = threads;
+		this.levelNumber = levelNumber;
+	}
+
+	/**
+	 * starts listening on the loopback address and starts the workers
+	 * @return the port listened on
+	 */
+	public int start() throws IOException {
+		selector = Selector.open();
+		listener = ServerSocketChannel.open();
+		listener.bind(new InetSocketAddress("127.0.0.1", port));
+		listener.configureBlocking(false);
+		listener.register(selector, SelectionKey.OP_ACCEPT);
+		scheduler = new ScheduledThreadPoolExecutor(threads, r -> {
+			Thread worker = new Thread(r, "room ticker");
+			worker.setDaemon(true);
+			return worker;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		running = true;
+		return ((InetSocketAddress) listener.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * accepts players and reads their input until stopped or, if
+	 * seconds were given, until they have passed, reporting as it goes
+	 */
+	public void serve() throws IOException {
+		long start = System.nanoTime();
+		long report = start + REPORT_NANOS;
+		long end = seconds > 0 ? start + (long) (seconds*1e9) : Long.MAX_VALUE;
+		long lastReport = start;
+		while(running) {
+			selector.select(Math.max(1, (report - System.nanoTime())/1000000));
+			long now = System.nanoTime();
+			for(SelectionKey key : selector.selectedKeys()) {
+				if(!key.isValid()) continue;
+				if(key.isAcceptable()) accept();
+				else if(key.isReadable()) {
+					ServerRoom room = (ServerRoom) key.attachment();
+					boolean open;
+					try {
+						open = room.read(now);
+					}
+					catch(IOException e) {
+						open = false;
+					}
+					if(!open) close(room);
+				}
+			}
+			selector.selectedKeys().clear();
+			if(now >= report) {
+				report(now - lastReport);
+				lastReport = now;
+				report = now + REPORT_NANOS;
+			}
+			if(now >= end) break;
+		}
+		for(SelectionKey key : selector.keys()) {
+			if(key.attachment() != null) close((ServerRoom) key.attachment());
+		}
+		scheduler.shutdownNow();
+		listener.close();
+		selector.close();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while((channel = listener.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			ServerRoom room = new ServerRoom(this, LevelFactory.build(levelNumber, seeds.nextLong()),
+					channel, seeds.nextLong());
+			channel.register(selector, SelectionKey.OP_READ, room);
+			rooms.incrementAndGet();
+			room.setFuture(scheduler.scheduleAtFixedRate(room, 0, STEP_NANOS, TimeUnit.NANOSECONDS));
+		}
+	}
+
+	/**
+	 * closes a room whose player has gone.  any thread may call this,
+	 * and only the first call for a room counts.
+	 */
+	public void close(ServerRoom room) {
+		if(room.close()) rooms.decrementAndGet();
+	}
+
+	/**
+	 * counts one tick of a room.  called by the workers.
+	 * @param lateness how long after its time the tick started
+	 * @param nanos how long the tick took, sending included
+	 * @param sent false if the frame was dropped
+	 */
+	public void recordTick(long lateness, long nanos, boolean sent) {
+		ticks.increment();
+		busyNanos.add(nanos);
+		if(lateness > STEP_NANOS) lateTicks.increment();
+		maxLateness.accumulate(lateness);
+		if(!sent) droppedFrames.increment();
+	}
+
+	private void report(long elapsed) {
+		long ticked = ticks.sumThenReset();
+		long busy = busyNanos.sumThenReset();
+		long late = lateTicks.sumThenReset();
+		long dropped = droppedFrames.sumThenReset();
+		long worst = maxLateness.getThenReset();
+		int open = rooms.get();
+		double tickNanos = ticked == 0 ? 0 : (double) busy / ticked;
+		System.out.printf("%5d rooms %9.0f ticks/s of %9.0f %6.2f%% late (worst %6.1fms) %6.2f%% dropped"
+				+ " %8.1fus/tick %6.2f cores busy %7.0f rooms/core%n",
+				open, ticked*1e9/elapsed, open/Main.SECOND_DELAY, ticked == 0 ? 0 : 100.0*late/ticked, worst/1e6,
+				ticked == 0 ? 0 : 100.0*dropped/ticked, tickNanos/1e3, (double) busy/elapsed,
+				tickNanos == 0 ? 0 : Main.SECOND_DELAY*1e9/tickNanos);
+	}
+
+	/**
+	 * makes serve close every room, hang up on every player and
+	 * return.  any thread may call this.
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Runs the server described by the command line.
+	 */
+	public static void main(String[] args) throws Exception {
+		GameServer server = new GameServer();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			switch(args[i]) {
+				case "-port":
+					server.port = Integer.parseInt(args[i + 1]);
+					break;
+				case "-threads":
+					server.threads = Integer.parseInt(args[i + 1]);
+					break;
+				case "-level":
+					server.levelNumber = Integer.parseInt(args[i + 1]);
+					break;
+				case "-seconds":
+					server.seconds = Double.parseDouble(args[i + 1]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		int port = server.start();
+		System.out.printf("serving level %d on port %d with %d threads%n", server.levelNumber, port, server.threads);
+		server.serve();
+	}
+}
@@ -3,129 +3,274 @@
 
 package game;
 
-import java.util.ArrayList;
-import java.util.Random;
-
-import javafx.scene.Group;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
- * The purpose of this class is to create Clusters for guest instances
- * of PartyGuest to reside in and for the player to hide in.  It is a well
+ * The purpose of this class is to create Clusters for the guests
+ * of a GuestStore to reside in and for the player to hide in.  It is a well
  * designed class because of its simplicity, and some of the methods such
  * as populate define some of the most fundamental features of the game.
  * This class creates an independent, necessary object in the game.  It doesn't
  * rely on global variables or method call orders.  It simply makes the most
  * important object in the game, and defines all the things it can do and be
- * in a reasonable amount of methods.
+ * in a reasonable amount of methods.  It holds no scene graph state, so
+ * LevelView reads its position and opacity when drawing it.
  */
-class GuestCluster extends Circle{
+class GuestCluster {
 	public final static double GUEST_COUNT = 10;
 	public final static double RADIUS = 40;
+	public final static int SAFE_COUNT = 6;
 	public final static double SAFE_OPACITY = 0.3;
 	public final static double UNSAFE_OPACITY = 0;
 
+	private int id;
+	private GuestStore guests;
+	private double centerX;
+	private double centerY;
 	private boolean safe;
-	private Group levelNode;
-	private ArrayList<PartyGuest> clusterGuests;
-	private int clusterTimer;
+	private int[] clusterGuests;
+	private int guestTotal;
+	private int dormant;
+	private long dormantState;
+	private int headCount;
 	private boolean degenState;
 	private double opacity;
 
 	/**
 	 * set up a crowd cluster for the player to hide in.
-	 * each cluster initially is given to a parent node, set
-	 * as safe, and then set to not degenerate into an unsafe
-	 * state.
+	 * each cluster initially is set as safe, and then set
+	 * to not degenerate into an unsafe state.
 	 * @param x the x position of the GuestCluster
 	 * @param y the y position of the GuestCluster
-	 * @param levelNode the parent node of the GuestCluster
+	 * @param id the id guests use to refer to the GuestCluster
+	 * @param guests the store the guests of the GuestCluster live in
 	 */
-	public GuestCluster(int x, int y, Group parent) {
-		super(x, y, RADIUS, Color.BLUE);
-		levelNode = parent;
-		levelNode.getChildren().add(this);
+	public GuestCluster(int x, int y, int id, GuestStore guests) {
+		centerX = x;
+		centerY = y;
+		this.id = id;
+		this.guests = guests;
 		setSafe(true);
 		degenState = false;
-		clusterGuests = new ArrayList<PartyGuest>();
+		clusterGuests = new int[(int) GUEST_COUNT];
+	}
+
+	/**
+	 * empties the cluster and makes it safe again, keeping
+	 * its storage for the next populate
+	 */
+	public void reset() {
+		guestTotal = 0;
+		dormant = 0;
+		headCount = 0;
+		degenState = false;
+		setSafe(true);
+	}
+
+	/**
+	 * @return the id guests use to refer to the cluster
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the x position of the center of the cluster
+	 */
+	public double getCenterX() {
+		return centerX;
+	}
+
+	/**
+	 * @return the y position of the center of the cluster
+	 */
+	public double getCenterY() {
+		return centerY;
+	}
+
+	/**
+	 * determines whether a point is inside the cluster
+	 * @param x x location of the point
+	 * @param y y location of the point
+	 * @return whether the point is in the cluster
+	 */
+	public boolean contains(double x, double y) {
+		return (x-centerX)*(x-centerX) + (y-centerY)*(y-centerY) <= RADIUS*RADIUS;
 	}
 
 	/**
-	 * gets a list of the guests in the cluster
-	 * @return list of the guests in the cluster
+	 * @return the number of guests belonging to the cluster,
+	 * dormant or not
 	 */
-	public ArrayList<PartyGuest> getClusterGuests() {
-		return clusterGuests;
+	public int getGuestTotal() {
+		return guestTotal + dormant;
 	}
 
 	/**
-	 * adds a new PartyGuest to the cluster,
+	 * @return the number of guests of the cluster that live in
+	 * the GuestStore as individuals
+	 */
+	public int getIndividualTotal() {
+		return guestTotal;
+	}
+
+	/**
+	 * @return the number of guests of the cluster only kept as
+	 * a head count, drawn as one impostor
+	 */
+	public int getDormant() {
+		return dormant;
+	}
+
+	/**
+	 * @param i an index below getIndividualTotal
+	 * @return the id of the i-th guest of the cluster
+	 */
+	public int getGuest(int i) {
+		return clusterGuests[i];
+	}
+
+	/**
+	 * adds a new guest to the cluster,
 	 * enough of which makes the cluster a
 	 * good place for hiding
-	 * @param guest a new member of the cluster
+	 * @param guest the id of a new member of the cluster
 	 */
-	public void addGuest(PartyGuest guest) {
-		levelNode.getChildren().add(guest);
-		clusterGuests.add(guest);
-		guest.setCluster(this);
+	public void addGuest(int guest) {
+		if(guestTotal == clusterGuests.length) {
+			clusterGuests = Arrays.copyOf(clusterGuests, guestTotal*2 + 1);
+		}
+		clusterGuests[guestTotal++] = guest;
 	}
 
 	/**
 	 * remove a guest from the cluster, eventually
 	 * making the cluster a bad place to hide.
-	 * @param guest a member to remove from the cluster
+	 * @param guest the id of a member to remove from the cluster
 	 */
-	public void removeGuest(PartyGuest guest) {
-		levelNode.getChildren().remove(guest);
-		clusterGuests.remove(guest);
+	public void removeGuest(int guest) {
+		for(int i = 0; i < guestTotal; i++) {
+			if(clusterGuests[i] == guest) {
+				clusterGuests[i] = clusterGuests[--guestTotal];
+				return;
+			}
+		}
 	}
 
 	/**
 	 *randomly places guests inside the cluster.  also tells each
 	 *guest that this was the zone it was originally populated in.
+	 * @param random the random choices of the level
+	 */
+	public void populate(LevelRandom random) {
+		populate(random, (int) GUEST_COUNT);
+	}
+
+	/**
+	 *randomly places a number of guests inside the cluster.
+	 * @param random the random choices of the level
 	 * @param guestCount the number of guests to be added to the cluster
 	 */
-	public void populate() {
-		double x, y;
-		for(int i = 0; i < GUEST_COUNT; i++) {
-			//15 is just for aesthetic purposes,
-			//to keep guests images graphically in the cluster
-			x = randomDouble(RADIUS-15);
-			y = randomDouble(Math.sqrt((RADIUS-15)*(RADIUS-15)-x*x));
-			PartyGuest guest  = new PartyGuest("guest");
-			guest.setX(this.getCenterX() + x - guest.getCharacter().getBoundsInLocal().getWidth() / 2);
-			guest.setY(this.getCenterY() + y - guest.getCharacter().getBoundsInLocal().getHeight() / 2);
-			guest.setOriginalZone(guest.getX(), guest.getY());
-			this.addGuest(guest);
+	public void populate(LevelRandom random, int guestCount) {
+		for(int i = 0; i < guestCount; i++) {
+			placeGuest(random);
 		}
+		if(!isCrowded()) setSafe(false);
 	}
 
-	private double randomDouble(double range) {
-		Random r = new Random();
-		return 2*range*r.nextDouble() - range;
+	private int placeGuest(LevelRandom random) {
+		double x, y;
+		//15 is just for aesthetic purposes,
+		//to keep guests images graphically in the cluster
+		x = random.nextDouble(RADIUS-15);
+		y = random.nextDouble(Math.sqrt((RADIUS-15)*(RADIUS-15)-x*x));
+		int guest = guests.add(this.getCenterX() + x - PartyGuest.SPRITE_SIZE / 2,
+				this.getCenterY() + y - PartyGuest.SPRITE_SIZE / 2, id);
+		this.addGuest(guest);
+		return guest;
 	}
 
 	/**
-	 * determines whether a guest is inside the cluster
-	 * @param guest the guest that may or may not be
-	 * in the cluster
-	 * @return whether the guest is in the cluster
+	 * fills the cluster with dormant guests, which stand in it
+	 * as a head count until materialize places them.  the
+	 * cluster draws one seed from the level, so where its
+	 * guests are placed does not depend on when they wake up.
+	 * @param random the random choices of the level
+	 * @param guestCount the number of guests to be added to the cluster
 	 */
-	public boolean containsGuest(PartyGuest guest) {
-		return this.contains(guest.getX(), guest.getY());
+	public void populateDormant(LevelRandom random, int guestCount) {
+		dormant = guestCount;
+		headCount += guestCount;
+		dormantState = random.nextLong();
+		if(!isCrowded()) setSafe(false);
 	}
 
 	/**
-	 * counts the guests currently in the cluster
-	 * @return the number of guests in the cluster
+	 * turns one dormant guest into an individual in the store
+	 * @param scratch a generator to draw the guest's placement
+	 * with; its state is overwritten
+	 * @return the id of the guest
 	 */
-	public int guestCount() {
-		int count = 0;
-		for(PartyGuest guest: clusterGuests) {
-			if(this.containsGuest(guest)) count++;
+	public int materialize(LevelRandom scratch) {
+		scratch.setState(dormantState);
+		dormant--;
+		//the guest stops being counted as dormant and is
+		//counted again when the store sees it standing here
+		headCount--;
+		int guest = placeGuest(scratch);
+		dormantState = scratch.getState();
+		return guest;
+	}
+
+	/**
+	 * turns every guest back into a head count, unless one of
+	 * them is on its way somewhere
+	 * @return whether the cluster has no individuals left
+	 */
+	public boolean collapse() {
+		for(int i = 0; i < guestTotal; i++) {
+			if(guests.isActive(clusterGuests[i])) return false;
 		}
-		return count;
+		for(int i = 0; i < guestTotal; i++) {
+			int guest = clusterGuests[i];
+			if(!guests.is(guest, GuestStore.IN_CLUSTER)) headCount++;
+			guests.remove(guest);
+		}
+		dormant += guestTotal;
+		guestTotal = 0;
+		return true;
+	}
+
+	/**
+	 * @return the number of guests currently standing in the cluster
+	 */
+	public int guestCount() {
+		return headCount;
+	}
+
+	/**
+	 * tells the cluster one of its guests stepped into it
+	 */
+	public void guestEntered() {
+		headCount++;
+	}
+
+	/**
+	 * tells the cluster one of its guests stepped out of it.
+	 * a cluster too thin to hide in stops being safe at once.
+	 */
+	public void guestLeft() {
+		headCount--;
+		if(headCount < SAFE_COUNT) setSafe(false);
+	}
+
+	/**
+	 * @return whether enough guests stand in the cluster to
+	 * hide the player
+	 */
+	public boolean isCrowded() {
+		return headCount >= SAFE_COUNT;
 	}
 
 	/**
@@ -144,7 +289,13 @@ class GuestCluster extends Circle{
 		this.safe = safe;
 		if(safe) opacity = SAFE_OPACITY;
 		else opacity = UNSAFE_OPACITY;
-		this.setOpacity(opacity);
+	}
+
+	/**
+	 * @return the opacity the cluster should be drawn with
+	 */
+	public double getOpacity() {
+		return opacity;
 	}
 
 	/**
@@ -153,45 +304,59 @@ class GuestCluster extends Circle{
 	 */
 	public void lowerOpacity(double amount) {
 		opacity -= amount;
-		this.setOpacity(opacity);
 	}
 
 	/**
-	 * sets a 180 frame timer for the cluster
+	 * @return if the cluster cluster is in the process of
+	 * degenerating or regenerating
 	 */
-	public void setClusterTimer() {
-		this.clusterTimer = 180;
+	public boolean isDegen() {
+		return degenState;
 	}
 
 	/**
-	 * @return returns the time of the cluster timer
+	 * sets the cluster as being in a state of constant safety
+	 * or as a cluster that is subject to degeneration
+	 * @param state whether or not the cluster in the process of
+	 * degenerating or regenerating
 	 */
-	public int getClusterTimer() {
-		return clusterTimer;
+	public void setDegenState(boolean state) {
+		degenState = state;
 	}
 
 	/**
-	 * lets the timer tick one frame down
+	 * @return the most bytes save writes, until more guests
+	 * join the cluster than it has room for
 	 */
-	public void tickTimer() {
-		clusterTimer--;
+	public int getSaveSize() {
+		return 1 + 1 + 8 + 4 + 8 + 4 + 4 + 4*clusterGuests.length;
 	}
 
 	/**
-	 * @return if the cluster cluster is in the process of
-	 * degenerating or regenerating
+	 * writes the safety, fading and head counts of the cluster
+	 * and which guests belong to it
+	 * @param out where the state is written
 	 */
-	public boolean isDegen() {
-		return degenState;
+	public void save(ByteBuffer out) {
+		out.put((byte) (safe ? 1 : 0)).put((byte) (degenState ? 1 : 0)).putDouble(opacity);
+		out.putInt(dormant).putLong(dormantState).putInt(headCount);
+		out.putInt(guestTotal);
+		for(int i = 0; i < guestTotal; i++) out.putInt(clusterGuests[i]);
 	}
 
 	/**
-	 * sets the cluster as being in a state of constant safety
-	 * or as a cluster that is subject to degeneration
-	 * @param state whether or not the cluster in the process of
-	 * degenerating or regenerating
+	 * puts the cluster back in a state written by save
+	 * @param in where the state is read from
 	 */
-	public void setDegenState(boolean state) {
-		degenState = state;
+	public void restore(ByteBuffer in) {
+		safe = in.get() != 0;
+		degenState = in.get() != 0;
+		opacity = in.getDouble();
+		dormant = in.getInt();
+		dormantState = in.getLong();
+		headCount = in.getInt();
+		guestTotal = in.getInt();
+		if(clusterGuests.length < guestTotal) clusterGuests = new int[guestTotal];
+		for(int i = 0; i < guestTotal; i++) clusterGuests[i] = in.getInt();
 	}
 }
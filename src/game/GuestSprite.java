@@ -0,0 +1,61 @@
+package game;
+
+import javafx.scene.Group;
+import javafx.scene.image.ImageView;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+
+class GuestSprite extends Group {
+
+	private ImageView character;
+	private Circle fov;
+	private double halfWidth;
+	private double halfHeight;
+	private double shownX = Double.NaN;
+	private double shownY = Double.NaN;
+
+	/**
+	 * Makes the picture of a type of party guest out of the
+	 * shared sprite atlas.  The monitor also gets its field of
+	 * vision drawn around it.
+	 * @param code Code determines what type of guest is drawn.
+	 */
+	public GuestSprite(String code) {
+		character = new ImageView(SpriteCache.getAtlas());
+		character.setViewport(SpriteCache.getRegion(code));
+		sizeAndScale(character);
+		//the picture never changes size, so its bounds are only asked for once
+		halfWidth = character.getBoundsInLocal().getWidth()/2;
+		halfHeight = character.getBoundsInLocal().getHeight()/2;
+		this.getChildren().add(character);
+		if(code.equals("monitor")) {
+			fov = new Circle();
+			fov.setRadius(PartyGuest.FOV_RADIUS);
+			fov.setFill(Color.YELLOW);
+			fov.setOpacity(0.2);
+			this.getChildren().add(fov);
+		}
+	}
+
+	private void sizeAndScale(ImageView i) {
+		i.setPreserveRatio(true);
+		i.setFitHeight(PartyGuest.SPRITE_SIZE);
+	}
+	/**
+	 * centers the sprite on a location, leaving the nodes
+	 * alone if it is already there
+	 * @param x the x location of the guest
+	 * @param y the y location of the guest
+	 */
+	public void moveTo(double x, double y) {
+		if(x == shownX && y == shownY) return;
+		shownX = x;
+		shownY = y;
+		character.setX(x - halfWidth);
+		character.setY(y - halfHeight);
+		if(fov != null) {
+			fov.setCenterX(x);
+			fov.setCenterY(y - PartyGuest.FOV_OFFSET_Y);
+		}
+	}
+}
@@ -0,0 +1,508 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Holds every guest of a room as parallel primitive arrays indexed by
+ * guest id, so moving and testing the whole crowd are tight loops over
+ * contiguous memory instead of walks over one object per guest.  The
+ * guests with a velocity are also kept in an active list, so a step
+ * only visits the guests that move, and the ids of removed guests are
+ * reused by the next guests added.  Guests that appear, disappear or
+ * come to a stop are listed as dirty until a view has drawn them, so a
+ * view only touches the guests that moved or changed.
+ */
+class GuestStore {
+	public static final int IN_PLAY = 1;
+	public static final int MOVING_AWAY = 2;
+	public static final int MOVING_BACK = 4;
+	public static final int IN_CLUSTER = 8;
+	public static final int DIRTY = 16;
+	public static final int LEAVING = 32;
+	public static final double HOME_RADIUS = 1;
+
+	private int size;
+	private double[] x;
+	private double[] y;
+	private double[] prevX;
+	private double[] prevY;
+	private double[] xVol;
+	private double[] yVol;
+	private double[] homeX;
+	private double[] homeY;
+	private byte[] flags;
+	private int[] cluster;
+	private int[] active;
+	private int[] activeSlot;
+	private int activeCount;
+	private int[] free;
+	private int freeCount;
+	private int[] dirty;
+	private int dirtyCount;
+	private GuestCluster[] clusters;
+
+	/**
+	 * makes an empty store
+	 * @param capacity the number of guests to make room for
+	 */
+	public GuestStore(int capacity) {
+		x = new double[capacity];
+		y = new double[capacity];
+		prevX = new double[capacity];
+		prevY = new double[capacity];
+		xVol = new double[capacity];
+		yVol = new double[capacity];
+		homeX = new double[capacity];
+		homeY = new double[capacity];
+		flags = new byte[capacity];
+		cluster = new int[capacity];
+		active = new int[capacity];
+		activeSlot = new int[capacity];
+		free = new int[capacity];
+		dirty = new int[capacity];
+	}
+
+	/**
+	 * lets the clusters count their guests as they step in
+	 * and out of them from now on
+	 * @param clusters the clusters indexed by id
+	 */
+	public void setClusters(GuestCluster[] clusters) {
+		this.clusters = clusters;
+	}
+
+	/**
+	 * adds a guest standing still at its original placement,
+	 * reusing the id of a removed guest when there is one
+	 * @param x x location of the guest
+	 * @param y y location of the guest
+	 * @param clusterId the id of the cluster the guest belongs to
+	 * @return the id of the new guest
+	 */
+	public int add(double x, double y, int clusterId) {
+		int id;
+		if(freeCount > 0) id = free[--freeCount];
+		else {
+			if(size == flags.length) grow();
+			id = size++;
+		}
+		this.x[id] = x;
+		this.y[id] = y;
+		prevX[id] = x;
+		prevY[id] = y;
+		xVol[id] = 0;
+		yVol[id] = 0;
+		homeX[id] = x;
+		homeY[id] = y;
+		flags[id] = (byte) (IN_PLAY | (flags[id] & DIRTY));
+		cluster[id] = clusterId;
+		activeSlot[id] = -1;
+		markDirty(id);
+		if(clusters != null && clusters[clusterId].contains(x, y)) {
+			flags[id] |= IN_CLUSTER;
+			clusters[clusterId].guestEntered();
+		}
+		return id;
+	}
+
+	private void grow() {
+		int capacity = Math.max(16, flags.length*2);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		prevX = Arrays.copyOf(prevX, capacity);
+		prevY = Arrays.copyOf(prevY, capacity);
+		xVol = Arrays.copyOf(xVol, capacity);
+		yVol = Arrays.copyOf(yVol, capacity);
+		homeX = Arrays.copyOf(homeX, capacity);
+		homeY = Arrays.copyOf(homeY, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		cluster = Arrays.copyOf(cluster, capacity);
+		active = Arrays.copyOf(active, capacity);
+		activeSlot = Arrays.copyOf(activeSlot, capacity);
+		free = Arrays.copyOf(free, capacity);
+		dirty = Arrays.copyOf(dirty, capacity);
+	}
+
+	/**
+	 * removes every guest, keeping the arrays for the
+	 * guests added next
+	 */
+	public void clear() {
+		clearDirty();
+		size = 0;
+		activeCount = 0;
+		freeCount = 0;
+	}
+
+	/**
+	 * takes a guest standing still out of the store, so its id
+	 * can be given to the next guest added.  the guest's cluster
+	 * is not told; it counts its own head when it lets go of
+	 * its guests.
+	 * @param id the guest
+	 */
+	public void remove(int id) {
+		stop(id);
+		flags[id] &= DIRTY;
+		markDirty(id);
+		free[freeCount++] = id;
+	}
+
+	/**
+	 * @return one past the highest id in use.  the guests
+	 * that were removed or left are no longer IN_PLAY.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of guests with a velocity
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * @param i an index below getActiveCount
+	 * @return the id of the i-th guest with a velocity.  stopping
+	 * a guest moves the last active guest into its place, so
+	 * walk the list backwards when stopping guests along the way.
+	 */
+	public int getActive(int i) {
+		return active[i];
+	}
+
+	/**
+	 * @return whether the guest has a velocity
+	 */
+	public boolean isActive(int id) {
+		return activeSlot[id] >= 0;
+	}
+
+	private void markDirty(int id) {
+		if((flags[id] & DIRTY) != 0) return;
+		flags[id] |= DIRTY;
+		dirty[dirtyCount++] = id;
+	}
+
+	/**
+	 * @return the number of guests that appeared, disappeared
+	 * or stopped since the last clearDirty
+	 */
+	public int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * @param i an index below getDirtyCount
+	 * @return the id of the i-th dirty guest
+	 */
+	public int getDirty(int i) {
+		return dirty[i];
+	}
+
+	/**
+	 * forgets which guests were dirty, once they are drawn
+	 */
+	public void clearDirty() {
+		for(int i = 0; i < dirtyCount; i++) flags[dirty[i]] &= ~DIRTY;
+		dirtyCount = 0;
+	}
+
+	private void activate(int id) {
+		if(activeSlot[id] >= 0) return;
+		activeSlot[id] = activeCount;
+		active[activeCount++] = id;
+	}
+
+	/**
+	 * @return the x location of a guest
+	 */
+	public double getX(int id) {
+		return x[id];
+	}
+
+	/**
+	 * @return the y location of a guest
+	 */
+	public double getY(int id) {
+		return y[id];
+	}
+
+	/**
+	 * @param alpha how far from the previous step to the
+	 * current one
+	 * @return the x location of a guest in between the two steps
+	 */
+	public double getX(int id, double alpha) {
+		return prevX[id] + (x[id] - prevX[id])*alpha;
+	}
+
+	/**
+	 * @param alpha how far from the previous step to the
+	 * current one
+	 * @return the y location of a guest in between the two steps
+	 */
+	public double getY(int id, double alpha) {
+		return prevY[id] + (y[id] - prevY[id])*alpha;
+	}
+
+	/**
+	 * @return the x velocity of a guest
+	 */
+	public double getxVol(int id) {
+		return xVol[id];
+	}
+
+	/**
+	 * @return the y velocity of a guest
+	 */
+	public double getyVol(int id) {
+		return yVol[id];
+	}
+
+	/**
+	 * @return the id of the cluster a guest belongs to
+	 */
+	public int getCluster(int id) {
+		return cluster[id];
+	}
+
+	/**
+	 * @param id the guest
+	 * @param flag one of IN_PLAY, MOVING_AWAY, MOVING_BACK or LEAVING
+	 * @return whether the guest has the flag set
+	 */
+	public boolean is(int id, int flag) {
+		return (flags[id] & flag) != 0;
+	}
+
+	/**
+	 * @return every flag a guest has set, but DIRTY
+	 */
+	public int getFlags(int id) {
+		return flags[id] & ~DIRTY;
+	}
+
+	/**
+	 * sets or clears a state flag of a guest
+	 * @param id the guest
+	 * @param flag one of IN_PLAY, MOVING_AWAY, MOVING_BACK or LEAVING
+	 * @param on whether the flag should be set
+	 */
+	public void set(int id, int flag, boolean on) {
+		if(on) flags[id] |= flag;
+		else flags[id] &= ~flag;
+	}
+
+	/**
+	 * stops a guest where it is
+	 * @param id the guest
+	 */
+	public void stop(int id) {
+		xVol[id] = 0;
+		yVol[id] = 0;
+		//a guest standing still is drawn where it stands
+		prevX[id] = x[id];
+		prevY[id] = y[id];
+		int slot = activeSlot[id];
+		if(slot < 0) return;
+		markDirty(id);
+		int last = active[--activeCount];
+		active[slot] = last;
+		activeSlot[last] = slot;
+		activeSlot[id] = -1;
+	}
+
+	/**
+	 * Sets the guest's velocity vector toward a certain point
+	 * with a certain speed
+	 * @param id the guest
+	 * @param tx x location of point to go to
+	 * @param ty y location of point to go to
+	 * @param speed how fast the guest should move
+	 */
+	public void goToward(int id, double tx, double ty, double speed) {
+		double dx = tx - x[id];
+		double dy = ty - y[id];
+		double distance = Math.sqrt(dx*dx + dy*dy);
+		//already there; a zero velocity keeps it from turning into NaN
+		double scale = distance == 0 ? 0 : speed/distance;
+		xVol[id] = dx*scale;
+		yVol[id] = dy*scale;
+		activate(id);
+	}
+
+	/**
+	 * Sets the guest's velocity vector toward where it was
+	 * originally placed
+	 * @param id the guest
+	 * @param speed how fast the guest should move
+	 */
+	public void goHome(int id, double speed) {
+		goToward(id, homeX[id], homeY[id], speed);
+	}
+
+	/**
+	 * Reverses the guest's velocity
+	 * @param id the guest
+	 */
+	public void reverseVol(int id) {
+		xVol[id] = -xVol[id];
+		yVol[id] = -yVol[id];
+	}
+
+	/**
+	 * remembers where a guest stands at the start of a step,
+	 * for drawing in between steps
+	 * @param id the guest
+	 */
+	public void savePosition(int id) {
+		prevX[id] = x[id];
+		prevY[id] = y[id];
+	}
+
+	/**
+	 * moves a guest along its velocity.  a step may be taken
+	 * in several parts, as long as moved is called after the
+	 * last of them.
+	 * @param id the guest
+	 * @param dt how long the guest moves for
+	 */
+	public void advance(int id, double dt) {
+		x[id] += xVol[id]*dt;
+		y[id] += yVol[id]*dt;
+	}
+
+	/**
+	 * checks a guest that moved for stepping in or out of its
+	 * cluster
+	 * @param id the guest
+	 */
+	public void moved(int id) {
+		if(clusters != null) crossClusterEdge(id);
+	}
+
+	/**
+	 * finds when a guest moving along its velocity first
+	 * touches a circle
+	 * @param id the guest
+	 * @param cx x location of the center of the circle
+	 * @param cy y location of the center of the circle
+	 * @param r the radius of the circle
+	 * @param dt how long the guest moves for
+	 * @return the time from now the guest touches the circle,
+	 * 0 if it is already in it, or -1 if it doesn't within dt
+	 */
+	public double arrival(int id, double cx, double cy, double r, double dt) {
+		return arrival(x[id], y[id], xVol[id], yVol[id], cx, cy, r, dt);
+	}
+
+	/**
+	 * finds when a guest moving along its velocity comes back
+	 * to where it was originally placed
+	 * @param id the guest
+	 * @param dt how long the guest moves for
+	 * @return the time from now the guest is home, or -1 if it
+	 * isn't within dt
+	 */
+	public double homeArrival(int id, double dt) {
+		return arrival(id, homeX[id], homeY[id], HOME_RADIUS, dt);
+	}
+
+	/**
+	 * finds when a point moving in a straight line first
+	 * touches a circle, by solving |p + v t - c| = r for the
+	 * earlier root
+	 * @return the time from now the point touches the circle,
+	 * 0 if it is already in it, or -1 if it doesn't within dt
+	 */
+	public static double arrival(double x, double y, double xVol, double yVol,
+			double cx, double cy, double r, double dt) {
+		double px = x - cx;
+		double py = y - cy;
+		double c = px*px + py*py - r*r;
+		if(c <= 0) return 0;
+		double a = xVol*xVol + yVol*yVol;
+		double b = px*xVol + py*yVol;
+		//standing still, or heading away from the circle
+		if(a == 0 || b >= 0) return -1;
+		double discriminant = b*b - a*c;
+		if(discriminant < 0) return -1;
+		double t = (-b - Math.sqrt(discriminant))/a;
+		return t <= dt ? t : -1;
+	}
+
+	private void crossClusterEdge(int id) {
+		boolean inside = clusters[cluster[id]].contains(x[id], y[id]);
+		if(inside == is(id, IN_CLUSTER)) return;
+		set(id, IN_CLUSTER, inside);
+		if(inside) clusters[cluster[id]].guestEntered();
+		else clusters[cluster[id]].guestLeft();
+	}
+
+	/**
+	 * takes a guest that left the party out of the room
+	 * @param id the guest
+	 */
+	public void leave(int id) {
+		if(is(id, IN_CLUSTER)) clusters[cluster[id]].guestLeft();
+		remove(id);
+	}
+
+	/**
+	 * @return the most bytes save writes, until the store grows
+	 */
+	public int getSaveSize() {
+		//each guest, then the active and free lists, which can't hold more ids than there are guests
+		return 12 + flags.length*(8*8 + 1 + 4 + 4) + 2*4*flags.length;
+	}
+
+	/**
+	 * writes every guest and the active and free lists.  which
+	 * guests are dirty is left out.
+	 * @param out where the state is written
+	 */
+	public void save(ByteBuffer out) {
+		out.putInt(size).putInt(activeCount).putInt(freeCount);
+		for(int id = 0; id < size; id++) {
+			out.putDouble(x[id]).putDouble(y[id]).putDouble(prevX[id]).putDouble(prevY[id]);
+			out.putDouble(xVol[id]).putDouble(yVol[id]).putDouble(homeX[id]).putDouble(homeY[id]);
+			out.put((byte) (flags[id] & ~DIRTY)).putInt(cluster[id]).putInt(activeSlot[id]);
+		}
+		for(int i = 0; i < activeCount; i++) out.putInt(active[i]);
+		for(int i = 0; i < freeCount; i++) out.putInt(free[i]);
+	}
+
+	/**
+	 * puts the store back in a state written by save, reusing
+	 * its arrays.  every guest is dirty afterwards, so views
+	 * draw the whole crowd again.
+	 * @param in where the state is read from
+	 */
+	public void restore(ByteBuffer in) {
+		clearDirty();
+		size = in.getInt();
+		activeCount = in.getInt();
+		freeCount = in.getInt();
+		while(flags.length < size) grow();
+		for(int id = 0; id < size; id++) {
+			x[id] = in.getDouble();
+			y[id] = in.getDouble();
+			prevX[id] = in.getDouble();
+			prevY[id] = in.getDouble();
+			xVol[id] = in.getDouble();
+			yVol[id] = in.getDouble();
+			homeX[id] = in.getDouble();
+			homeY[id] = in.getDouble();
+			flags[id] = in.get();
+			cluster[id] = in.getInt();
+			activeSlot[id] = in.getInt();
+		}
+		for(int i = 0; i < activeCount; i++) active[i] = in.getInt();
+		for(int i = 0; i < freeCount; i++) free[i] = in.getInt();
+		for(int id = 0; id < size; id++) markDirty(id);
+	}
+}
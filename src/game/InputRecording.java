@@ -0,0 +1,176 @@
+package game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The actions held during every tick of one attempt at a level, along
+ * with everything needed to build that level again.  The held actions
+ * are the PlayerInput mask, and only the ticks where it changes are
+ * stored, so an attempt where the player holds a direction for a while
+ * costs a few bytes.  The size of the room is kept too, so a recording
+ * of a level whose definition has since changed fails to replay
+ * instead of retracing a different room.
+ */
+class InputRecording {
+	public static final int MAGIC = 0x50545053;
+
+	private int levelNumber;
+	private int width;
+	private int height;
+	private long seed;
+	private double dt;
+	private boolean godMode;
+	private int ticks;
+	private int[] changeTicks;
+	private int[] changeMasks;
+	private int changes;
+
+	/**
+	 * starts an empty recording of a level built by LevelFactory
+	 * @param levelNumber which level is played
+	 * @param width the width of the room the level was built with
+	 * @param height the height of the room the level was built with
+	 * @param seed the seed of the level
+	 * @param dt the length of one tick
+	 * @param godMode whether the player can be caught
+	 */
+	public InputRecording(int levelNumber, int width, int height, long seed, double dt, boolean godMode) {
+		this.levelNumber = levelNumber;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		this.dt = dt;
+		this.godMode = godMode;
+		changeTicks = new int[64];
+		changeMasks = new int[64];
+	}
+
+	/**
+	 * notes the actions held at the start of a tick
+	 * @param tick the tick about to be stepped
+	 * @param mask the actions held, one PlayerInput bit each
+	 */
+	public void record(int tick, int mask) {
+		if(changes == 0 ? mask != 0 : mask != changeMasks[changes - 1]) {
+			if(changes == changeTicks.length) {
+				changeTicks = Arrays.copyOf(changeTicks, changes*2);
+				changeMasks = Arrays.copyOf(changeMasks, changes*2);
+			}
+			changeTicks[changes] = tick;
+			changeMasks[changes] = mask;
+			changes++;
+		}
+		ticks = tick + 1;
+	}
+
+	/**
+	 * builds the level the recording was made on
+	 * @return a fresh copy of the level
+	 * @throws IllegalStateException if the installed level is
+	 * no longer the size of the room recorded
+	 */
+	public Level buildLevel() {
+		Level level = LevelFactory.build(levelNumber, seed);
+		if(level.getWidth() != width || level.getHeight() != height) {
+			throw new IllegalStateException("Level " + levelNumber + " is " + level.getWidth() + "x"
+					+ level.getHeight() + " but was recorded at " + width + "x" + height);
+		}
+		level.setGodMode(godMode);
+		level.setTickLength(dt);
+		return level;
+	}
+
+	/**
+	 * @return the number of ticks recorded
+	 */
+	public int getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * @return the length of one tick
+	 */
+	public double getDt() {
+		return dt;
+	}
+
+	/**
+	 * @return the number of times the held actions changed
+	 */
+	public int getChanges() {
+		return changes;
+	}
+
+	/**
+	 * @return the tick of the i-th change of held actions
+	 */
+	public int getChangeTick(int i) {
+		return changeTicks[i];
+	}
+
+	/**
+	 * @return the actions held from the i-th change on, one
+	 * PlayerInput bit each
+	 */
+	public int getChangeMask(int i) {
+		return changeMasks[i];
+	}
+
+	/**
+	 * @return a short name for the recording, unique per seed
+	 */
+	public String getName() {
+		return "level" + levelNumber + "-" + Long.toHexString(seed);
+	}
+
+	/**
+	 * writes the recording to a file
+	 * @param path where to write it
+	 */
+	public void write(Path path) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(levelNumber);
+			out.writeShort(width);
+			out.writeShort(height);
+			out.writeLong(seed);
+			out.writeDouble(dt);
+			out.writeBoolean(godMode);
+			out.writeInt(ticks);
+			out.writeInt(changes);
+			for(int i = 0; i < changes; i++) {
+				out.writeInt(changeTicks[i]);
+				out.writeByte(changeMasks[i]);
+			}
+		}
+	}
+
+	/**
+	 * reads a recording written by write
+	 * @param path where to read it from
+	 * @return the recording
+	 */
+	public static InputRecording read(Path path) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if(in.readInt() != MAGIC) throw new IOException(path + " is not an input recording");
+			InputRecording recording = new InputRecording(in.readByte(), in.readShort(), in.readShort(),
+					in.readLong(), in.readDouble(), in.readBoolean());
+			recording.ticks = in.readInt();
+			recording.changes = in.readInt();
+			recording.changeTicks = new int[Math.max(1, recording.changes)];
+			recording.changeMasks = new int[Math.max(1, recording.changes)];
+			for(int i = 0; i < recording.changes; i++) {
+				recording.changeTicks[i] = in.readInt();
+				recording.changeMasks[i] = in.readUnsignedByte();
+			}
+			return recording;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package game;
+
+import java.io.PrintStream;
+
+/**
+ * Counts latencies in log-linear buckets the way HdrHistogram does:
+ * every power of two is split into 64 equal buckets, so any recorded
+ * value is known to within about 1.5% while the whole range from a
+ * nanosecond to over an hour fits in a few thousand counters.
+ * Recording is a couple of shifts and an increment.
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKETS = 64;
+	private static final int MAX_SHIFT = 36;
+
+	private long[] counts;
+	private long total;
+	private long max;
+
+	/**
+	 * makes an empty histogram
+	 */
+	public LatencyHistogram() {
+		counts = new long[SUB_BUCKETS*(MAX_SHIFT + 2)];
+	}
+
+	private static int index(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - 6);
+		if(shift > MAX_SHIFT) return SUB_BUCKETS*(MAX_SHIFT + 2) - 1;
+		return SUB_BUCKETS*shift + (int) (value >>> shift);
+	}
+
+	//the highest value that lands in the bucket
+	private static long valueAt(int index) {
+		if(index < 2*SUB_BUCKETS) return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index - SUB_BUCKETS*shift;
+		return (sub << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * counts one latency
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[index(value)]++;
+		total++;
+		if(value > max) max = value;
+	}
+
+	/**
+	 * @return the number of latencies counted
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * @return the largest latency counted
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return the latency that percentile of the counted
+	 * latencies are at or below
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if(total == 0) return 0;
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= target) return Math.min(valueAt(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * makes this histogram count exactly what another does
+	 * @param other the histogram to copy
+	 */
+	public void copyFrom(LatencyHistogram other) {
+		System.arraycopy(other.counts, 0, counts, 0, counts.length);
+		total = other.total;
+		max = other.max;
+	}
+
+	/**
+	 * prints the percentile distribution in the layout of
+	 * HdrHistogram's .hgrm files, in microseconds
+	 * @param out where to print
+	 */
+	public void outputPercentileDistribution(PrintStream out) {
+		out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			if(counts[i] == 0) continue;
+			seen += counts[i];
+			double fraction = (double) seen / total;
+			out.printf("%12.3f %2.12f %10d %14.2f%n", Math.min(valueAt(i), max) / 1000.0, fraction, seen,
+					fraction < 1 ? 1 / (1 - fraction) : Double.POSITIVE_INFINITY);
+		}
+		out.printf("#[Mean    = %12.3f, Max     = %12.3f]%n", mean() / 1000.0, max / 1000.0);
+		out.printf("#[Total count    = %12d]%n", total);
+	}
+
+	private double mean() {
+		double sum = 0;
+		for(int i = 0; i < counts.length; i++) sum += (double) counts[i] * Math.min(valueAt(i), max);
+		return total == 0 ? 0 : sum / total;
+	}
+}
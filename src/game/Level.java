@@ -1,13 +1,14 @@
 package game;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Random;
-import javafx.scene.Group;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-import javafx.scene.text.Text;
+import java.util.Arrays;
 
+/**
+ * The simulation of a single party room.  A level holds every position,
+ * velocity, timer and score of the game but no JavaFX objects, so it can
+ * be stepped headless; LevelView reads from it to draw the room.
+ */
 class Level {
 
 	public static final double MONITOR_SPEED = 130;
@@ -16,47 +17,338 @@ class Level {
 	public static final double BOWL_RADIUS = 20;
 	public static final double EXIT_RADIUS = 5;
 	public static final int WIN_TARGET = 24;
+	public static final double GRID_CELL = 2*GuestCluster.RADIUS;
+	public static final int MONITOR_TICKS = 300;
+	public static final int THIRST_TICKS = 160;
+	public static final int DEGEN_TICKS = 180;
+	public static final int CROWD_LOD_CLUSTERS = 50;
+	public static final double CROWD_LOD_RADIUS = 3*GuestCluster.RADIUS;
 
-	private Group levelNode;
 	private PartyGuest player;
-    private PartyGuest monitor;
-    private HashSet<String> input;
-	private Circle punchBowl;
-	private Circle exit;
+    private PartyGuest[] monitors = new PartyGuest[0];
+    private int monitorCount;
+    private FlowField flowField;
+    private int input;
+    private double tickLength = Main.SECOND_DELAY;
+    private PlayerInput inputQueue;
+	private double monitorSpeed = MONITOR_SPEED;
+	private double playerSpeed = PLAYER_SPEED;
+	private double guestSpeed = GUEST_SPEED;
+	private int winTarget = WIN_TARGET;
+	private int guestsPerCluster = (int) GuestCluster.GUEST_COUNT;
+	private double punchBowlX;
+	private double punchBowlY;
+	private double exitX;
+	private double exitY;
+	private int width;
+	private int height;
+	private double playerStartX;
+	private double playerStartY;
+	private double[] monitorStartX = new double[0];
+	private double[] monitorStartY = new double[0];
 	private int[][] clusterMatrix;
+	private GuestStore guests;
+	private GuestCluster[] clusters;
 	private ArrayList<GuestCluster> clusterList;
-	private HashSet<GuestCluster> degenClusters;
-	private HashSet<GuestCluster> regenClusters;
-	private HashSet<GuestCluster> safeClusters;
-	private HashSet<PartyGuest> movingAwayGuests;
-	private HashSet<PartyGuest> movingBackGuests;
-	private int monitorTimer;
-	private int thirstTimer;
+	private SpatialGrid clusterGrid;
+	private int crowdLodClusters = CROWD_LOD_CLUSTERS;
+	private boolean crowdLod;
+	private ArrayList<GuestCluster> awakeClusters;
+	private boolean[] awake;
+	private LevelRandom crowdRandom;
+	//timer ids; each cluster gets two after these, to degenerate and to regenerate
+	private static final int MONITOR_TIMER = 0;
+	private static final int THIRST_TIMER = 1;
+	private static final int CLUSTER_TIMERS = 2;
+
+	private boolean degenRegen;
+	private ArrayList<GuestCluster> fadingClusters;
+	private TimerWheel timers;
+	private boolean monitorRouteDue;
 	private boolean punchBowlPoisoned;
 	private int guestPoisoned;
-	private Text score;
 	private boolean punchResetArmed;
+	private boolean punchReset;
 	private boolean godMode;
+	private LevelRandom random;
+	private InputRecording recording;
+	private int tick;
+	private FrameProfiler profiler;
 
 	/**
 	 * a level has contains gameplay mechanics and logic which
 	 * leads to either a win or a loss depending on user input
-	 * @param node the root of the level
-	 */
-	public Level(Group node) {
-		levelNode = node;
-		input = new HashSet<String>();
-		movingAwayGuests = new HashSet<PartyGuest>();
-		movingBackGuests = new HashSet<PartyGuest>();
+	 * @param width the width of the room
+	 * @param height the height of the room
+	 * @param seed the seed every random choice of the level follows from
+	 */
+	public Level(int width, int height, long seed) {
+		this.width = width;
+		this.height = height;
+		random = new LevelRandom(seed);
+		inputQueue = new PlayerInput();
+		timers = new TimerWheel(CLUSTER_TIMERS);
 		setMonitorTimer();
 		setThirstTimer();
 		guestPoisoned = 0;
 		punchResetArmed = true;
-		score = new Text(500, 25, "Score: " + guestPoisoned + "/" + WIN_TARGET);
-		levelNode.getChildren().add(score);
+	}
+
+	/**
+	 * advances the level by one frame, running the mechanics
+	 * that have been enabled for it
+	 * @param dt the time differential from one frame
+	 * to the next
+	 */
+	public void step(double dt) {
+		FrameProfiler p = profiler;
+		long start = p == null ? 0 : System.nanoTime();
+		long t = start;
+		if(recording != null) recording.record(tick, input);
+		tick++;
+		player.savePosition();
+		for(int i = 0; i < monitorCount; i++) monitors[i].savePosition();
+		controlMonitorCollisions(width, height);
+		setMonitorVelocityAndPlayerSafety();
+		if(p != null) t = p.lap(FrameProfiler.MONITOR_CONTROL, t);
+		runTimers();
+		if(p != null) t = p.lap(FrameProfiler.TIMERS, t);
+		sendGuestsFromPunch(dt);
+		if(crowdLod) controlCrowdLod();
+		if(p != null) t = p.lap(FrameProfiler.SEND_FROM_PUNCH, t);
+		updatePlayer(dt);
+		if(p != null) t = p.lap(FrameProfiler.UPDATE_PLAYER, t);
+		if(playerReachedBowl()) setPunchBowlPoisoned(true);
+		if(p != null) t = p.lap(FrameProfiler.PLAYER_AT_BOWL, t);
+		updateMonitor(dt);
+		if(p != null) t = p.lap(FrameProfiler.UPDATE_MONITOR, t);
+		if(degenRegen) clusterDegenControl();
+		if(p != null) t = p.lap(FrameProfiler.DEGEN_CONTROL, t);
+		if(punchReset) punchBowlReset();
+		if(p != null) {
+			p.lap(FrameProfiler.PUNCH_RESET, t);
+			p.lap(FrameProfiler.STEP, start);
+		}
+	}
+
+	/**
+	 * puts the level back in the state it was built in, as
+	 * if it had been built with a new seed.  every guest,
+	 * cluster and collection is reused, so a retry allocates
+	 * nothing.
+	 * @param seed the seed the new random choices follow from
+	 */
+	public void reset(long seed) {
+		random.setState(seed);
+		tick = 0;
+		guestPoisoned = 0;
+		punchResetArmed = true;
+		timers.clear();
+		setMonitorTimer();
+		setThirstTimer();
+		guests.clear();
+		clusterList.clear();
+		if(crowdLod) {
+			awakeClusters.clear();
+			Arrays.fill(awake, false);
+		}
+		for(GuestCluster cluster : clusters) {
+			cluster.reset();
+			clusterList.add(cluster);
+			clusterGrid.move(cluster.getId(), cluster.getCenterX(), cluster.getCenterY());
+			populate(cluster);
+		}
+		setPunchBowlPoisoned(false);
+		player.init(playerStartX, playerStartY);
+		player.setSafe(false);
+		for(int i = 0; i < monitorCount; i++) {
+			monitors[i].init(monitorStartX[i], monitorStartY[i]);
+			monitors[i].setRandomVol(monitorSpeed, random);
+		}
+		if(degenRegen) fadingClusters.clear();
+	}
+	/**
+	 * @return the most bytes save writes, for the guests, timers
+	 * and clusters the level has room for now
+	 */
+	public int getSaveSize() {
+		int size = 4*5 + 3 + 8 + PartyGuest.SAVE_SIZE*(1 + monitorCount);
+		size += timers.getSaveSize() + guests.getSaveSize() + clusterGrid.getSaveSize();
+		for(GuestCluster cluster : clusters) size += cluster.getSaveSize();
+		//the cluster, awake and fading lists, each at most every cluster
+		size += 3*(4 + 4*clusters.length) + 8;
+		return size;
+	}
+	/**
+	 * writes the whole state of the level: the random
+	 * generators, the timers, the actions held, the player,
+	 * the monitors, every guest and cluster, and which
+	 * clusters are listed, awake and fading.  how the level
+	 * was built and set up is left out.
+	 * @param out where the state is written
+	 */
+	public void save(ByteBuffer out) {
+		out.putInt(clusters.length).putInt(monitorCount);
+		out.putInt(tick).putInt(input).putInt(guestPoisoned);
+		out.put((byte) (punchBowlPoisoned ? 1 : 0)).put((byte) (punchResetArmed ? 1 : 0));
+		out.put((byte) (monitorRouteDue ? 1 : 0));
+		out.putLong(random.getState());
+		player.save(out);
+		for(int i = 0; i < monitorCount; i++) monitors[i].save(out);
+		timers.save(out);
+		guests.save(out);
+		for(GuestCluster cluster : clusters) cluster.save(out);
+		putClusters(out, clusterList);
+		clusterGrid.save(out);
+		if(crowdLod) {
+			out.putLong(crowdRandom.getState());
+			putClusters(out, awakeClusters);
+		}
+		if(degenRegen) putClusters(out, fadingClusters);
+	}
+
+	private static void putClusters(ByteBuffer out, ArrayList<GuestCluster> list) {
+		out.putInt(list.size());
+		for(int i = 0; i < list.size(); i++) out.putInt(list.get(i).getId());
+	}
+	/**
+	 * puts the level back in a state written by save, from
+	 * this level or another one built and set up the same
+	 * way.  the level carries on exactly as it did from that
+	 * state, and every guest, cluster and collection is
+	 * reused, so a restore copies instead of allocating.
+	 * @param in where the state is read from
+	 */
+	public void restore(ByteBuffer in) {
+		if(in.getInt() != clusters.length || in.getInt() != monitorCount) {
+			throw new IllegalArgumentException("The checkpoint is of a different level");
+		}
+		tick = in.getInt();
+		input = in.getInt();
+		guestPoisoned = in.getInt();
+		punchBowlPoisoned = in.get() != 0;
+		punchResetArmed = in.get() != 0;
+		monitorRouteDue = in.get() != 0;
+		random.setState(in.getLong());
+		player.restore(in);
+		for(int i = 0; i < monitorCount; i++) monitors[i].restore(in);
+		timers.restore(in);
+		guests.restore(in);
+		for(GuestCluster cluster : clusters) cluster.restore(in);
+		getClusters(in, clusterList);
+		clusterGrid.restore(in);
+		if(crowdLod) {
+			crowdRandom.setState(in.getLong());
+			getClusters(in, awakeClusters);
+			Arrays.fill(awake, false);
+			for(int i = 0; i < awakeClusters.size(); i++) awake[awakeClusters.get(i).getId()] = true;
+		}
+		if(degenRegen) getClusters(in, fadingClusters);
+	}
 
+	private void getClusters(ByteBuffer in, ArrayList<GuestCluster> list) {
+		list.clear();
+		int count = in.getInt();
+		list.ensureCapacity(count);
+		for(int i = 0; i < count; i++) list.add(clusters[in.getInt()]);
+	}
+	/**
+	 * @return the number of steps taken so far
+	 */
+	public int getTick() {
+		return tick;
+	}
+	/**
+	 * @param recording where to record the keys held during
+	 * each step from now on, or null to stop recording
+	 */
+	public void setRecording(InputRecording recording) {
+		this.recording = recording;
+	}
+	/**
+	 * @param profiler what to time each phase of a step with,
+	 * or null to stop timing them
+	 */
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+	}
+	/**
+	 * sets how much time each step stands for, so the timers
+	 * keep their length in seconds when the level is stepped
+	 * coarser than Main.SECOND_DELAY.  must be called before
+	 * the first step.
+	 * @param seconds the dt every step will be called with
+	 */
+	public void setTickLength(double seconds) {
+		tickLength = seconds;
+		setMonitorTimer();
+		setThirstTimer();
 	}
 
+	//the number of steps that take as long as a number of frames at Main.SECOND_DELAY
+	private int ticks(int frames) {
+		return Math.max(1, (int) Math.round(frames*Main.SECOND_DELAY/tickLength));
+	}
+	/**
+	 * changes how fast everyone moves.  must be called before
+	 * initMonitor so the monitors start at the new speed.
+	 * @param monitorSpeed the speed of the monitor
+	 * @param playerSpeed the speed of the player
+	 * @param guestSpeed the speed of the guests
+	 */
+	public void setSpeeds(double monitorSpeed, double playerSpeed, double guestSpeed) {
+		this.monitorSpeed = monitorSpeed;
+		this.playerSpeed = playerSpeed;
+		this.guestSpeed = guestSpeed;
+	}
+	/**
+	 * @param winTarget the number of guests who must leave sick
+	 * to pass the level
+	 */
+	public void setWinTarget(int winTarget) {
+		this.winTarget = winTarget;
+	}
+	/**
+	 * @return the number of guests who must leave sick to
+	 * pass the level
+	 */
+	public int getWinTarget() {
+		return winTarget;
+	}
+	/**
+	 * @param guestsPerCluster the number of guests each cluster
+	 * is populated with. must be called before initClusters.
+	 */
+	public void setGuestsPerCluster(int guestsPerCluster) {
+		this.guestsPerCluster = guestsPerCluster;
+	}
+	/**
+	 * @param clusters rooms with more clusters than this keep
+	 * the guests of far away, idle clusters as a head count.
+	 * must be called before initClusters.
+	 */
+	public void setCrowdLodClusters(int clusters) {
+		crowdLodClusters = clusters;
+	}
+	/**
+	 * @return whether the guests of far away, idle clusters
+	 * are kept as a head count
+	 */
+	public boolean isCrowdLod() {
+		return crowdLod;
+	}
+	/**
+	 * @return the width of the room
+	 */
+	public int getWidth() {
+		return width;
+	}
+	/**
+	 * @return the height of the room
+	 */
+	public int getHeight() {
+		return height;
+	}
 	/**
 	 * @param clusterMatrix a 2d array storing the x and y
 	 * coordinates of the clusters in the level
@@ -70,22 +362,62 @@ class Level {
 	 * and populates them with guests
 	 */
 	public void initClusters() {
+		crowdLod = clusterMatrix.length > crowdLodClusters;
+		int guestCapacity = clusterMatrix.length * guestsPerCluster;
+		if(crowdLod) {
+			guestCapacity = Math.min(guestCapacity, 16*guestsPerCluster);
+			awakeClusters = new ArrayList<GuestCluster>(clusterMatrix.length);
+			awake = new boolean[clusterMatrix.length];
+			crowdRandom = new LevelRandom(0);
+		}
+		guests = new GuestStore(guestCapacity);
+		clusters = new GuestCluster[clusterMatrix.length];
+		guests.setClusters(clusters);
+		clusterGrid = new SpatialGrid(width, height, GRID_CELL, clusterMatrix.length);
 		clusterList = new ArrayList<GuestCluster>();
 		for(int i = 0; i < clusterMatrix.length; i++) {
-			GuestCluster cluster = new GuestCluster(clusterMatrix[i][0],clusterMatrix[i][1], levelNode);
+			GuestCluster cluster = new GuestCluster(clusterMatrix[i][0],clusterMatrix[i][1], i, guests);
+			clusters[i] = cluster;
 			clusterList.add(cluster);
-			cluster.populate();
+			clusterGrid.move(i, cluster.getCenterX(), cluster.getCenterY());
+			populate(cluster);
 		}
+		flowField = new FlowField(width, height, clusters);
+	}
+
+	private void populate(GuestCluster cluster) {
+		if(crowdLod) cluster.populateDormant(random, guestsPerCluster);
+		else cluster.populate(random, guestsPerCluster);
 	}
 	/**
 	 * removes the cluster that belongs to a guest
 	 * from the list of clusters the level will
 	 * acknowledge
-	 * @param guest the guest belonging to the cluster
-	 * to be removed
+	 * @param guest the id of the guest belonging to the
+	 * cluster to be removed
 	 */
-	public void removeCluster(PartyGuest guest) {
-		clusterList.remove(guest.getCluster());
+	public void removeCluster(int guest) {
+		clusterList.remove(getCluster(guest));
+		clusterGrid.remove(guests.getCluster(guest));
+	}
+	/**
+	 * @param guest the id of a guest
+	 * @return the cluster the guest belongs to
+	 */
+	public GuestCluster getCluster(int guest) {
+		return clusters[guests.getCluster(guest)];
+	}
+	/**
+	 * @return the store holding every guest of the level
+	 */
+	public GuestStore getGuests() {
+		return guests;
+	}
+	/**
+	 * @return every cluster the level started with, indexed by id
+	 */
+	public GuestCluster[] getClusters() {
+		return clusters;
 	}
 	/**
 	 * @return the list of clusters the level acknowledges
@@ -97,49 +429,51 @@ class Level {
 	 * places an unpoisoned punch bowl in its location
 	 */
 	public void initPunchBowl(double x, double y) {
-		punchBowl = new Circle(x, y, BOWL_RADIUS, Color.RED);
+		punchBowlX = x;
+		punchBowlY = y;
 		setPunchBowlPoisoned(false);
-		levelNode.getChildren().add(punchBowl);
+	}
+	/**
+	 * @return x location of the punch bowl
+	 */
+	public double getPunchBowlX() {
+		return punchBowlX;
+	}
+	/**
+	 * @return y location of the punch bowl
+	 */
+	public double getPunchBowlY() {
+		return punchBowlY;
 	}
 	/**
 	 * places an exit point at the bottom of the level
 	 */
 	public void initExit(double x, double y) {
-		exit = new Circle(x, y, EXIT_RADIUS);
+		exitX = x;
+		exitY = y;
 	}
 	/**
 	 * @return x location of the exit
 	 */
 	public double getExitX() {
-		return exit.getCenterX();
+		return exitX;
 	}
 	/**
 	 * @return y location of the exit
 	 */
 	public double getExitY() {
-		return exit.getCenterY();
-	}
-	/**
-	 * determines if a guest has collided with the exit
-	 * @param guest the guest that may or may not have hit
-	 * the exit
-	 * @return whether or not the guest collided with the
-	 * exit
-	 */
-	public boolean exitCollision(PartyGuest guest){
-		return exit.contains(guest.getX(), guest.getY());
+		return exitY;
 	}
 	/**
 	 * initializes the player at its location
 	 * @param x x location of the player
 	 * @param y y location of the player
-	 * @param node the root of the player
 	 */
-	public void initPlayer(double x, double y, Group node) {
+	public void initPlayer(double x, double y) {
+		playerStartX = x;
+		playerStartY = y;
 		player = new PartyGuest("player");
-		player.setX(x);
-		player.setY(y);
-		node.getChildren().add(player);
+		player.init(x, y);
 		player.setSafe(false);
 	}
 	/**
@@ -149,79 +483,98 @@ class Level {
 		return player;
 	}
 	/**
-	 * initializes the monitor at its location
+	 * adds a monitor to the level at its location.  a level
+	 * may have any number of monitors.
 	 * @param x starting x location of the monitor
 	 * @param y starting y location of the monitor
-	 * @param node the root of the monitor
 	 */
-	public void initMonitor(double x, double y, Group node) {
-		monitor = new PartyGuest("monitor");
-		monitor.init(x, y, node);
-		monitor.setRandomVol(MONITOR_SPEED);
-	}
-	/**
-	 * update the location of the monitor
-	 * @param dt the time differential from one frame
-	 * to the next
-	 */
-	public void updateMonitor(double dt) {
-		monitor.updateGuest(dt);
+	public void initMonitor(double x, double y) {
+		if(monitorCount == monitors.length) {
+			monitors = Arrays.copyOf(monitors, monitorCount + 1);
+			monitorStartX = Arrays.copyOf(monitorStartX, monitorCount + 1);
+			monitorStartY = Arrays.copyOf(monitorStartY, monitorCount + 1);
+		}
+		monitorStartX[monitorCount] = x;
+		monitorStartY[monitorCount] = y;
+		PartyGuest monitor = new PartyGuest("monitor");
+		monitor.init(x, y);
+		monitor.setRandomVol(monitorSpeed, random);
+		monitors[monitorCount++] = monitor;
 	}
 	/**
-	 * makes a random guest thirsty enough to get a drink
-	 * from the the punch bowl
-	 * @return
+	 * @return the first monitor
 	 */
-	public PartyGuest thirstSelector() {
-		Random r = new Random();
-		GuestCluster cluster = clusterList.get(r.nextInt(clusterList.size()));
-		ArrayList<PartyGuest> guestList = cluster.getClusterGuests();
-		return guestList.get(r.nextInt(guestList.size()));
+	public PartyGuest getMonitor() {
+		return monitors[0];
 	}
 	/**
-	 * @return a set of the guests moving away from their
-	 * clusters toward the punch
+	 * @return the number of monitors
 	 */
-	public HashSet<PartyGuest> getMovingAwayGuests() {
-		return movingAwayGuests;
+	public int getMonitorCount() {
+		return monitorCount;
 	}
 	/**
-	 * adds a guest to the set of guests who are moving
-	 * away from their clusters toward the punch bowl
-	 * @param guest the guest to be added
+	 * @param i an index below getMonitorCount
+	 * @return the i-th monitor
 	 */
-	public void addMovingAwayGuest(PartyGuest guest) {
-		movingAwayGuests.add(guest);
+	public PartyGuest getMonitor(int i) {
+		return monitors[i];
 	}
 	/**
-	 * removes a guest to the set of guests who are moving
-	 * away from their clusters toward the punch bowl
-	 * @param guest the guest to be removed
+	 * update the location of the monitors
+	 * @param dt the time differential from one frame
+	 * to the next
 	 */
-	public void removeMovingAwayGuest(PartyGuest guest) {
-		movingAwayGuests.remove(guest);
+	public void updateMonitor(double dt) {
+		for(int i = 0; i < monitorCount; i++) monitors[i].updateGuest(dt);
 	}
 	/**
-	 * @return a set of the guests moving away from the punch bowl
+	 * makes a random guest thirsty enough to get a drink
+	 * from the the punch bowl
+	 * @return the id of the thirsty guest
 	 */
-	public HashSet<PartyGuest> getMovingBackGuests() {
-		return movingBackGuests;
+	public int thirstSelector() {
+		GuestCluster cluster = clusterList.get(random.nextInt(clusterList.size()));
+		int guest = random.nextInt(cluster.getGuestTotal());
+		if(guest < cluster.getIndividualTotal()) return cluster.getGuest(guest);
+		wake(cluster);
+		return cluster.materialize(crowdRandom);
 	}
-	/**
-	 * adds a guest to the set of guests who are moving
-	 * away from the punch bowl
-	 * @param guest the guest to be added
-	 */
-	public void addMovingBackGuest(PartyGuest guest) {
-		movingBackGuests.add(guest);
+
+	private void wake(GuestCluster cluster) {
+		if(awake[cluster.getId()]) return;
+		awake[cluster.getId()] = true;
+		awakeClusters.add(cluster);
 	}
-	/**
-	 * removes a guest to the set of guests who are moving
-	 * away from the punch bowl
-	 * @param guest the guest to be removed
-	 */
-	public void removeMovingBackGuest(PartyGuest guest) {
-		movingBackGuests.remove(guest);
+
+	private boolean nearPlayer(GuestCluster cluster) {
+		return circleContains(player.getX(), player.getY(), CROWD_LOD_RADIUS,
+				cluster.getCenterX(), cluster.getCenterY());
+	}
+	/**
+	 * places the dormant guests of the clusters the player
+	 * comes near as individuals, and turns the guests of the
+	 * clusters that are far from the player and standing
+	 * still back into a head count.  only used when
+	 * isCrowdLod.
+	 */
+	public void controlCrowdLod() {
+		int found = clusterGrid.query(player.getX(), player.getY(), CROWD_LOD_RADIUS);
+		for(int i = 0; i < found; i++) {
+			GuestCluster c = clusters[clusterGrid.getResult(i)];
+			if(c.getDormant() > 0 && nearPlayer(c)) {
+				wake(c);
+				while(c.getDormant() > 0) c.materialize(crowdRandom);
+			}
+		}
+		for(int i = awakeClusters.size() - 1; i >= 0; i--) {
+			GuestCluster c = awakeClusters.get(i);
+			if(!nearPlayer(c) && c.collapse()) {
+				awakeClusters.set(i, awakeClusters.get(awakeClusters.size() - 1));
+				awakeClusters.remove(awakeClusters.size() - 1);
+				awake[c.getId()] = false;
+			}
+		}
 	}
 	/**
 	 * determines whether a guest is colliding with any
@@ -231,8 +584,13 @@ class Level {
 	 * @return if the guest collides with any cluster
 	 */
 	public boolean clusterCollision(PartyGuest guest) {
-		for(GuestCluster cluster: clusterList) {
-			if(cluster.isSafe() && guest.getCharacter().getBoundsInParent().intersects(cluster.getBoundsInParent())) {
+		//the sprite's box against the cluster's box, as the scene graph bounds did
+		double reach = GuestCluster.RADIUS + PartyGuest.SPRITE_SIZE/2;
+		int found = clusterGrid.query(guest.getX(), guest.getY(), reach);
+		for(int i = 0; i < found; i++) {
+			GuestCluster cluster = clusters[clusterGrid.getResult(i)];
+			if(cluster.isSafe() && Math.abs(guest.getX() - cluster.getCenterX()) < reach
+					&& Math.abs(guest.getY() - cluster.getCenterY()) < reach) {
 				return true;
 			}
 		}
@@ -253,14 +611,16 @@ class Level {
 	private boolean between(double i, double min, double max) {
 		return (min < i && i < max);
 	}
-	/**
-	 * determines if a guest has collided with the punch bowl
-	 * @param guest the guest who may or may not have collided
-	 * with the punch bowl
-	 * @return if the guest collided with the punch bowl
-	 */
-	public boolean punchBowlCollision(PartyGuest guest) {
-		return (punchBowl.contains(guest.getX(), guest.getY()));
+
+	private static boolean circleContains(double cx, double cy, double r, double x, double y) {
+		return (x-cx)*(x-cx) + (y-cy)*(y-cy) <= r*r;
+	}
+	//the whole of the player's last move against the bowl, so a long step can't cross it
+	private boolean playerReachedBowl() {
+		double fromX = player.getX(0);
+		double fromY = player.getY(0);
+		return GuestStore.arrival(fromX, fromY, player.getX() - fromX, player.getY() - fromY,
+				punchBowlX, punchBowlY, BOWL_RADIUS, 1) >= 0;
 	}
 	/**
 	 * @return if the punch bowl is poisoned
@@ -269,187 +629,227 @@ class Level {
 		return punchBowlPoisoned;
 	}
 	/**
-	 * sets the punch bowl to be poisoned or unpoisoned.
-	 * punch bowl is red when unpoisoned and green when
-	 * poisoned
+	 * sets the punch bowl to be poisoned or unpoisoned
 	 * @param punchBowlPoisoned whether or not the punch
 	 * bowl is to be poisoned
 	 */
 	public void setPunchBowlPoisoned(boolean punchBowlPoisoned) {
 		this.punchBowlPoisoned = punchBowlPoisoned;
-		if(punchBowlPoisoned) {
-			punchBowl.setFill(Color.GREEN);
-		}
-		else {
-			punchBowl.setFill(Color.RED);
-		}
 	}
 	/**
-	 * sets the monitor velocity toward the player if
-	 * the player is out in the open and in a random
-	 * direction if the player is hidden.  also determines
-	 * if the player is hidden
+	 * sets the monitors' velocities toward the player if
+	 * the player is out in the open and in random
+	 * directions if the player is hidden.  the monitors
+	 * chase the player around the safe clusters along one
+	 * flow field they all share.  also determines if the
+	 * player is hidden
 	 */
     public void setMonitorVelocityAndPlayerSafety() {
     	if(!this.clusterCollision(player)) {
     		player.setSafe(false);
-    		monitor.goToward(player.getX(), player.getY(), MONITOR_SPEED);
+    		flowField.update(player.getX(), player.getY(), monitors, monitorCount);
+    		for(int i = 0; i < monitorCount; i++) {
+    			flowField.steer(monitors[i], player.getX(), player.getY(), monitorSpeed);
+    		}
     	}
     	else {
     		player.setSafe(true);
-    		if(this.getMonitorTimer() <= 0) {
-        		monitor.setRandomVol(MONITOR_SPEED);
+    		if(monitorRouteDue) {
+    			for(int i = 0; i < monitorCount; i++) monitors[i].setRandomVol(monitorSpeed, random);
         		setMonitorTimer();
         	}
     	}
     }
     /**
-     * reverses the monitors velocity if the monitor has
+     * reverses the velocity of each monitor that has
      * collided with the border
      * @param width width of the level
      * @param height height of the level
      */
     public void controlMonitorCollisions(int width, int height) {
-    	if(borderCollision(monitor, width, height)) monitor.reverseVol();
+    	for(int i = 0; i < monitorCount; i++) {
+    		if(borderCollision(monitors[i], width, height)) monitors[i].reverseVol();
+    	}
     }
     /**
      * sends a random guest to the punch bowl
      */
     public void sendGuestsToPunch() {
-    	PartyGuest thirstyGuest = this.thirstSelector();
-    	thirstyGuest.goToward(punchBowl.getCenterX(), punchBowl.getCenterX(), GUEST_SPEED);
-    	addMovingAwayGuest(thirstyGuest);
+    	if(clusterList.isEmpty()) return;
+    	int thirstyGuest = this.thirstSelector();
+    	guests.goToward(thirstyGuest, punchBowlX, punchBowlY, guestSpeed);
+    	//a guest on its way back or out may be picked again
+    	guests.set(thirstyGuest, GuestStore.MOVING_BACK | GuestStore.LEAVING, false);
+    	guests.set(thirstyGuest, GuestStore.MOVING_AWAY, true);
     	setThirstTimer();
     }
     /**
-     * determines where to send guests from the punch bowl
-     * and sends them there
+     * moves the guests on their way to and from the punch
+     * bowl, sending them on from wherever they arrive.  each
+     * guest's path is tested against the circle it is headed
+     * for, so a guest can't step over the bowl, the exit or
+     * its home however long the step.
      * @param dt
      */
     public void sendGuestsFromPunch(double dt) {
-    	for(PartyGuest guest: getMovingAwayGuests()) {
-    		if(punchBowlCollision(guest)) {
-    			if(isPunchBowlPoisoned()) {
-    				guest.goToward(getExitX(), getExitY(), GUEST_SPEED);
-    			}
-    			else {
-    				guest.reverseVol();
-        			addMovingBackGuest(guest);
-    			}
+    	//stopping or removing a guest moves the last active guest into its place
+    	for(int n = guests.getActiveCount() - 1; n >= 0; n--) {
+    		int i = guests.getActive(n);
+    		guests.savePosition(i);
+    		moveGuest(i, dt);
+    	}
+    }
+
+    //moves a guest for dt, stopping at each arrival on its way to act on it
+    private void moveGuest(int i, double dt) {
+    	GuestStore g = guests;
+    	double left = dt;
+    	while(true) {
+    		double t;
+    		if(g.is(i, GuestStore.MOVING_BACK)) t = g.homeArrival(i, left);
+    		else if(g.is(i, GuestStore.LEAVING)) t = g.arrival(i, exitX, exitY, EXIT_RADIUS, left);
+    		else if(g.is(i, GuestStore.MOVING_AWAY)) t = g.arrival(i, punchBowlX, punchBowlY, BOWL_RADIUS, left);
+    		else t = -1;
+    		if(t < 0) {
+    			g.advance(i, left);
+    			g.moved(i);
+    			return;
+    		}
+    		g.advance(i, t);
+    		left -= t;
+    		if(g.is(i, GuestStore.MOVING_BACK)) {
+    			g.stop(i);
+    			g.set(i, GuestStore.MOVING_AWAY | GuestStore.MOVING_BACK, false);
+    			g.moved(i);
+    			if(getCluster(i).guestCount() == 0) removeCluster(i);
+    			return;
     		}
-    		if(exitCollision(guest) && guest.isInPlay()) {
-    			guest.setInPlay(false);
-    			guest.getCluster().removeGuest(guest);
+    		if(g.is(i, GuestStore.LEAVING)) {
+    			g.leave(i);
+    			getCluster(i).removeGuest(i);
+    			if(getCluster(i).getGuestTotal() == 0) removeCluster(i);
     			guestPoisoned++;
+    			return;
     		}
-    		guest.updateGuest(dt);
-    	}
-    	for(PartyGuest g: getMovingBackGuests()) {
-    		if(g.getOriginalZone().contains(g.getX(), g.getY())) {
-    			g.setxVol(0);
-    			g.setyVol(0);
-    			removeMovingBackGuest(g);
-    			if(g.getCluster().guestCount() == 0) removeCluster(g);
+    		if(isPunchBowlPoisoned()) {
+    			g.goToward(i, getExitX(), getExitY(), guestSpeed);
+    			g.set(i, GuestStore.LEAVING, true);
+    		}
+    		else {
+    			//home, rather than back the way it came, in case it was on its way out
+    			g.goHome(i, guestSpeed);
+    			g.set(i, GuestStore.MOVING_BACK, true);
     		}
     	}
     }
     /**
-     * sets the safety of the clusters based on their
-     * population count.  clusters less than 6 are removed
+     * moves the timers on one frame and does whatever the
+     * timers that run out in it are for
      */
-    public void setClusterSafety() {
-       	for(GuestCluster cluster: getClusterList()) {
-    		if(cluster.guestCount() < 6) {
-    			cluster.setSafe(false);
+    public void runTimers() {
+    	int found = timers.advance();
+    	for(int i = 0; i < found; i++) {
+    		int timer = timers.getFired(i);
+    		if(timer == MONITOR_TIMER) monitorRouteDue = true;
+    		else if(timer == THIRST_TIMER) sendGuestsToPunch();
+    		else {
+    			GuestCluster c = clusters[(timer - CLUSTER_TIMERS) / 2];
+    			if((timer - CLUSTER_TIMERS) % 2 == 0) degenerate(c);
+    			else regenerate(c);
     		}
     	}
     }
     /**
-     * ticks the timers for the monitor to change routes
-     * and the guests to get thirsty
+     * @return the queue the presses and releases of the
+     * player's actions are offered to
+     */
+    public PlayerInput getInputQueue() {
+    	return inputQueue;
+    }
+    /**
+     * applies the presses and releases queued up to the
+     * moment the next step's slice of time ends
+     * @param until that moment, on the System.nanoTime clock
+     */
+    public void pollInput(long until) {
+    	input = inputQueue.poll(input, until, profiler);
+    }
+    /**
+     * starts holding an action
+     * @param action one of the PlayerInput actions
      */
-    public void tickTimers() {
-    	tickMonitorTimer();
-    	tickThirstTimer();
+    public void press(int action) {
+    	input |= action;
     }
     /**
-     * add input to the list of input to be processed in
-     * updatePlayer
-     * @param code user input
+     * stops holding an action
+     * @param action one of the PlayerInput actions
      */
-    public void addInput(String code) {
-    	input.add(code);
+    public void release(int action) {
+    	input &= ~action;
     }
     /**
-     * remove input from the list of input to be processed in
-     * updatePlayer
-     * @param code user input
+     * @param actions every action to hold from now on
      */
-    public void removeInput(String code) {
-    	input.remove(code);
+    public void setInput(int actions) {
+    	input = actions;
     }
     /**
-     * updates the player based on user input
+     * @return the actions held, one PlayerInput bit each
+     */
+    public int getInput() {
+    	return input;
+    }
+    /**
+     * releases every action
+     */
+    public void clearInput() {
+    	input = 0;
+    }
+    /**
+     * updates the player based on the actions held.  the
+     * player moves at the same speed diagonally.
      * @param dt the time differential from one frame to
      * the next
      */
 	public void updatePlayer(double dt) {
-		double c = 1;
-		if(input.size() == 2) {
-			c = Math.sqrt(2);
-		}
-		if(input.contains("RIGHT")|input.contains("D")) {
-			player.setX(player.getX() + PLAYER_SPEED*dt/c);
-		}
-		if(input.contains("LEFT")|input.contains("A")) {
-			player.setX(player.getX() - PLAYER_SPEED*dt/c);
-		}
-		if(input.contains("UP")|input.contains("W")) {
-			player.setY(player.getY() - PLAYER_SPEED*dt/c);
-		}
-		if(input.contains("DOWN")|input.contains("S")) {
-			player.setY(player.getY() + PLAYER_SPEED*dt/c);
+		int dx = ((input & PlayerInput.RIGHT) != 0 ? 1 : 0) - ((input & PlayerInput.LEFT) != 0 ? 1 : 0);
+		int dy = ((input & PlayerInput.DOWN) != 0 ? 1 : 0) - ((input & PlayerInput.UP) != 0 ? 1 : 0);
+		double step = playerSpeed*dt;
+		if(dx != 0 && dy != 0) {
+			step /= Math.sqrt(2);
 		}
+		player.setX(player.getX() + dx*step);
+		player.setY(player.getY() + dy*step);
     }
 	/**
-	 * @return gets the current time of the timer controlling
-	 * when the monitor changes routes
+	 * @return the number of frames until the monitors may
+	 * change routes, or 0 if they may already
 	 */
 	public int getMonitorTimer() {
-		return monitorTimer;
+		return timers.isPending(MONITOR_TIMER) ? timers.remaining(MONITOR_TIMER) : 0;
 	}
 	/**
-	 * sets a 300 frame timer for when the monitor should
-	 * changes routes
+	 * sets a 300 frame timer for when the monitors should
+	 * change routes
 	 */
 	public void setMonitorTimer() {
-		monitorTimer = 300;
+		monitorRouteDue = false;
+		timers.schedule(MONITOR_TIMER, ticks(MONITOR_TICKS));
 	}
 	/**
-	 * ticks the monitor timer down one frame
-	 */
-	public void tickMonitorTimer() {
-		monitorTimer--;
-	}
-	/**
-	 * @return gets the current time of the timer controlling
-	 * when the a guest will be thirsty
+	 * @return the number of frames until a guest gets
+	 * thirsty, or 0 if none is going to
 	 */
 	public int getThirstTimer() {
-		return thirstTimer;
+		return timers.isPending(THIRST_TIMER) ? timers.remaining(THIRST_TIMER) : 0;
 	}
 	/**
 	 * sets a 160 frame timer for when the a guest will
 	 * get thirsty
 	 */
 	public void setThirstTimer() {
-		this.thirstTimer = 160;
-	}
-	/**
-	 * ticks the thirst timer down one frame
-	 */
-	public void tickThirstTimer() {
-		thirstTimer--;
+		timers.schedule(THIRST_TIMER, ticks(THIRST_TICKS));
 	}
 	/**
 	 * @return the number of guests who have been poisoned
@@ -464,58 +864,65 @@ class Level {
 	 * guests exit to win
 	 */
 	public boolean win() {
-		return guestPoisoned == WIN_TARGET;
+		//a long step can take the score past the target
+		return guestPoisoned >= winTarget;
 	}
 	/**
 	 * @return whether or not the player has been caught
-	 * by the monitor
+	 * by any monitor
 	 */
 	public boolean lose() {
-		return !godMode && !player.isSafe() && monitor.getFov().contains(player.getX(), player.getY());
+		if(godMode || player.isSafe()) return false;
+		for(int i = 0; i < monitorCount; i++) {
+			if(monitors[i].fovContains(player.getX(), player.getY())) return true;
+		}
+		return false;
 	}
 	/**
 	 * sets up the sets that will control the degeneration
 	 * and regeneration of the clusters
 	 */
 	public void initDegenRegen() {
-		degenClusters = new HashSet<GuestCluster>();
-		regenClusters = new HashSet<GuestCluster>();
-		safeClusters = new HashSet<GuestCluster>();
+		degenRegen = true;
+		fadingClusters = new ArrayList<GuestCluster>();
 	}
 	/**
-	 * makes clusters degenerate when the player enters it
-	 * and regenerate after a certain amount of time
+	 * makes clusters start degenerating when the player
+	 * enters them, and fades the ones degenerating.  the
+	 * timers take it from there.
 	 */
 	public void clusterDegenControl() {
-		for(GuestCluster c : clusterList) {
+		int found = clusterGrid.query(player.getX(), player.getY(), GuestCluster.RADIUS);
+		for(int i = 0; i < found; i++) {
+			GuestCluster c = clusters[clusterGrid.getResult(i)];
 			if(c.contains(player.getX(), player.getY()) && !c.isDegen()) {
 				c.setDegenState(true);
-				c.setClusterTimer();
-				degenClusters.add(c);
-			}
-		}
-		for(GuestCluster c : degenClusters) {
-			c.tickTimer();
-			c.lowerOpacity(0.3/180);
-			if(c.getClusterTimer() == 0) {
-				c.setClusterTimer();
-				c.setSafe(false);
-				regenClusters.add(c);
-			}
-		}
-		for(GuestCluster c: regenClusters) {
-			c.tickTimer();
-			if(degenClusters.contains(c)) degenClusters.remove(c);
-			if(c.getClusterTimer() == 0) {
-				c.setSafe(true);
-				safeClusters.add(c);
+				timers.schedule(CLUSTER_TIMERS + 2*c.getId(), ticks(DEGEN_TICKS));
+				fadingClusters.add(c);
 			}
 		}
-		for(GuestCluster c: safeClusters) {
-			regenClusters.remove(c);
-			c.setDegenState(false);
+		for(int i = 0; i < fadingClusters.size(); i++) {
+			fadingClusters.get(i).lowerOpacity(GuestCluster.SAFE_OPACITY/ticks(DEGEN_TICKS));
 		}
-		safeClusters.clear();
+	}
+
+	//the player has stayed too long; the cluster stops hiding anyone for a while
+	private void degenerate(GuestCluster c) {
+		fadingClusters.remove(c);
+		c.setSafe(false);
+		timers.schedule(CLUSTER_TIMERS + 2*c.getId() + 1, ticks(DEGEN_TICKS));
+	}
+
+	private void regenerate(GuestCluster c) {
+		c.setSafe(c.isCrowded());
+		c.setDegenState(false);
+	}
+	/**
+	 * lets the guests refill the punch bowl every time
+	 * enough of them get sick
+	 */
+	public void initPunchReset() {
+		punchReset = true;
 	}
 	/**
 	 * resets the punch bowl to not be poisoned each time 6
@@ -531,11 +938,11 @@ class Level {
 		}
 	}
 	/**
-	 * displays the amount of guests who have exited
+	 * @return the amount of guests who have exited
 	 * and the number of guests it takes to win
 	 */
-	public void showScore() {
-		score.setText("Score: " + guestPoisoned + "/" + WIN_TARGET);
+	public String getScoreText() {
+		return "Score: " + guestPoisoned + "/" + winTarget;
 	}
 	/**
 	 * @param godMode in god mode the player can't be caught
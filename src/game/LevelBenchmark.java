@@ -0,0 +1,208 @@
+package game;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+/**
+ * Measures the cost of each phase of Level.step, of the whole step,
+ * and of saving and restoring a LevelCheckpoint, on synthetic rooms
+ * from a handful of clusters up to tens of thousands of guests.  Each
+ * phase is warmed up and then timed over a few fixed-length
+ * iterations, and the bytes the benchmark thread allocated are divided
+ * by the number of operations, the same numbers a JMH run with the gc
+ * profiler reports.
+ *
+ * Run with the cluster counts to measure as arguments, or none for
+ * the default ladder.  Every cluster holds GuestCluster.GUEST_COUNT guests.
+ *
+ * Run with --allocation first to check instead that a steady-state
+ * tick allocates nothing, on every installed level and on the ladder,
+ * with a RandomPolicy steering the player through the input queue.
+ * Each room is measured over a few rounds and the least allocating
+ * round counts, so a one-off JIT deoptimization can't fail the check;
+ * the exit status is 1 if any room still allocates.
+ */
+class LevelBenchmark {
+	public static final int[] CLUSTER_COUNTS = {5, 50, 500, 5000, 10000};
+	public static final double CLUSTER_SPACING = 3*GuestCluster.RADIUS;
+	public static final long WARMUP_NANOS = 1000000000L;
+	public static final long ITERATION_NANOS = 1000000000L;
+	public static final int ITERATIONS = 3;
+	public static final int ALLOCATION_WARMUP_TICKS = 20000;
+	public static final int ALLOCATION_TICKS = 20000;
+
+	private static final String[] PHASES = {"monitorControl", "sendGuestsFromPunch",
+			"clusterDegenControl", "updatePlayer", "fullTick", "checkpoint", "restore"};
+	//looked up once, since the lookup itself allocates and would be counted
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private LevelBenchmark() {
+	}
+
+	/**
+	 * builds a room with its clusters on a square lattice around a
+	 * poisoned punch bowl, with every mechanic turned on and the
+	 * player unable to lose
+	 * @param clusterCount the number of clusters in the room
+	 * @return the room, ready to be stepped
+	 */
+	public static Level syntheticRoom(int clusterCount) {
+		int side = (int) Math.ceil(Math.sqrt(clusterCount));
+		int size = (int) ((side + 1) * CLUSTER_SPACING);
+		int[][] matrix = new int[clusterCount][2];
+		for(int i = 0; i < clusterCount; i++) {
+			matrix[i][0] = (int) ((i % side + 1) * CLUSTER_SPACING);
+			matrix[i][1] = (int) ((i / side + 1) * CLUSTER_SPACING);
+		}
+		//the bowl sits in the gap between the middle clusters
+		double bowl = (side / 2 + 0.5) * CLUSTER_SPACING;
+		Level level = new Level(size, size, clusterCount);
+		level.setClusterMatrix(matrix);
+		level.initClusters();
+		level.initPunchBowl(bowl, bowl);
+		level.initExit(size / 2, size);
+		level.initPlayer(size / 2, size - CLUSTER_SPACING / 2);
+		level.initMonitor(CLUSTER_SPACING / 2, CLUSTER_SPACING / 2);
+		level.initDegenRegen();
+		level.initPunchReset();
+		level.setGodMode(true);
+		level.setPunchBowlPoisoned(true);
+		level.setInput(PlayerInput.RIGHT);
+		return level;
+	}
+
+	private static Consumer<Level> phase(String name, double dt) {
+		switch(name) {
+			case "monitorControl":
+				return l -> {
+					l.controlMonitorCollisions(l.getWidth(), l.getHeight());
+					l.setMonitorVelocityAndPlayerSafety();
+				};
+			case "sendGuestsFromPunch":
+				return l -> {
+					l.runTimers();
+					l.sendGuestsFromPunch(dt);
+					if(l.isCrowdLod()) l.controlCrowdLod();
+				};
+			case "clusterDegenControl":
+				return l -> l.clusterDegenControl();
+			case "updatePlayer":
+				return l -> l.updatePlayer(dt);
+			case "checkpoint":
+				LevelCheckpoint saved = new LevelCheckpoint();
+				return l -> saved.save(l);
+			case "restore":
+				LevelCheckpoint taken = new LevelCheckpoint();
+				return l -> {
+					if(!taken.isTaken()) taken.save(l);
+					taken.restore(l);
+				};
+			default:
+				return l -> l.step(dt);
+		}
+	}
+
+	private static long allocatedBytes() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	//runs the phase for about the given time and returns {operations, nanos, bytes}
+	private static long[] iteration(Level level, Consumer<Level> phase, long nanos) {
+		long ops = 0;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + nanos;
+		long now;
+		do {
+			for(int i = 0; i < 64; i++) phase.accept(level);
+			ops += 64;
+			now = System.nanoTime();
+		} while(now < end);
+		return new long[] {ops, now - start, allocatedBytes() - bytes};
+	}
+
+	private static void measure(int clusterCount, String name) {
+		Level level = syntheticRoom(clusterCount);
+		for(int i = 0; i < 600; i++) level.step(Main.SECOND_DELAY);
+		Consumer<Level> phase = phase(name, Main.SECOND_DELAY);
+		iteration(level, phase, WARMUP_NANOS);
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		for(int i = 0; i < ITERATIONS; i++) {
+			long[] result = iteration(level, phase, ITERATION_NANOS);
+			ops += result[0];
+			nanos += result[1];
+			bytes += result[2];
+		}
+		System.out.printf("%8d %9d  %-20s %14.1f %12.1f %10.1f%n", clusterCount,
+				level.getGuests().size(), name, ops * 1e9 / nanos, (double) nanos / ops, (double) bytes / ops);
+	}
+
+	//steps the room under a wandering player and returns the bytes allocated by its least allocating round
+	private static long tickAllocation(Level level) {
+		PlayerPolicy policy = new RandomPolicy(level.getWidth());
+		level.setProfiler(new FrameProfiler());
+		long least = Long.MAX_VALUE;
+		for(int round = -1; round < ITERATIONS; round++) {
+			int ticks = round < 0 ? ALLOCATION_WARMUP_TICKS : ALLOCATION_TICKS;
+			long bytes = allocatedBytes();
+			for(int i = 0; i < ticks; i++) {
+				policy.act(level);
+				level.pollInput(System.nanoTime());
+				level.step(Main.SECOND_DELAY);
+			}
+			if(round >= 0) least = Math.min(least, allocatedBytes() - bytes);
+		}
+		return least;
+	}
+
+	private static boolean checkAllocation(String room, Level level) {
+		long bytes = tickAllocation(level);
+		System.out.printf("%-20s %9d %10.3f%n", room, level.getGuests().size(), (double) bytes / ALLOCATION_TICKS);
+		return bytes == 0;
+	}
+
+	//checks every installed level and synthetic room, and returns whether none allocated
+	private static boolean checkAllocation(int[] counts) {
+		System.out.printf("%-20s %9s %10s%n", "room", "guests", "B/tick");
+		boolean clean = true;
+		for(int n = 1; n <= LevelFactory.count(); n++) {
+			Level level = LevelFactory.build(n, n);
+			level.setGodMode(true);
+			level.setPunchBowlPoisoned(true);
+			clean &= checkAllocation("level " + n, level);
+		}
+		for(int count : counts) {
+			clean &= checkAllocation(count + " clusters", syntheticRoom(count));
+		}
+		return clean;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) {
+		boolean allocation = args.length > 0 && args[0].equals("--allocation");
+		int first = allocation ? 1 : 0;
+		int[] counts = CLUSTER_COUNTS;
+		if(args.length > first) {
+			counts = new int[args.length - first];
+			for(int i = first; i < args.length; i++) counts[i - first] = Integer.parseInt(args[i]);
+		}
+		if(allocation) {
+			if(!checkAllocation(counts)) {
+				System.out.println("a steady-state tick allocated");
+				System.exit(1);
+			}
+			return;
+		}
+		System.out.printf("%8s %9s  %-20s %14s %12s %10s%n", "clusters", "guests", "phase", "ops/s", "ns/op", "B/op");
+		for(int count : counts) {
+			for(String name : PHASES) {
+				measure(count, name);
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package game;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A copy of the whole state of a Level at one step, kept in a buffer
+ * that is made once and written over by every checkpoint after that.
+ * Restoring copies the state back into the level's own arrays, so it
+ * costs about what reading the buffer does and allocates nothing,
+ * unlike building the level again.  A checkpoint can be restored into
+ * the level it was taken from, to retry from it, or into any number of
+ * levels built and set up the same way, to play many futures on from
+ * one state.
+ *
+ * The buffer is made Level.getSaveSize bytes long, so it only has to be
+ * made again if the level's arrays grow after that.
+ */
+class LevelCheckpoint {
+	private ByteBuffer buffer;
+	private boolean taken;
+
+	/**
+	 * makes an empty checkpoint that makes its buffer on the
+	 * first save
+	 */
+	public LevelCheckpoint() {
+	}
+
+	/**
+	 * makes an empty checkpoint with its buffer made now, so
+	 * saving the level allocates nothing
+	 * @param level the level the checkpoint will be taken of
+	 */
+	public LevelCheckpoint(Level level) {
+		buffer = ByteBuffer.allocateDirect(level.getSaveSize());
+	}
+
+	/**
+	 * copies the state of a level, over what was saved before
+	 * @param level the level, which must not be stepped meanwhile
+	 */
+	public void save(Level level) {
+		int size = level.getSaveSize();
+		if(buffer == null || buffer.capacity() < size) buffer = ByteBuffer.allocateDirect(size);
+		buffer.clear();
+		level.save(buffer);
+		buffer.flip();
+		taken = true;
+	}
+
+	/**
+	 * puts a level back in the saved state
+	 * @param level the level saved, or one built and set up the
+	 * same way
+	 */
+	public void restore(Level level) {
+		if(!taken) throw new IllegalStateException("Nothing has been saved");
+		buffer.rewind();
+		level.restore(buffer);
+	}
+
+	/**
+	 * @return whether a state has been saved
+	 */
+	public boolean isTaken() {
+		return taken;
+	}
+
+	/**
+	 * @return the size of the saved state, in bytes
+	 */
+	public int getSize() {
+		return buffer.limit();
+	}
+}
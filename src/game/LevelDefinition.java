@@ -0,0 +1,287 @@
+package game;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Describes one party room: its size, where the bowl, exit, player,
+ * monitor and clusters are, how fast everyone moves, how many guests
+ * must leave to win and which mechanics are on.  Definitions are
+ * written as .level text files, one setting per line:
+ *
+ * <pre>
+ * name Tutorial
+ * size 600 600
+ * bowl 300 300
+ * exit 300 600
+ * player 300 500
+ * monitor 50 50           (one line per monitor)
+ * speeds 130 125 150      (monitor, player, guests)
+ * winTarget 24
+ * guestsPerCluster 10
+ * mechanics degenRegen punchReset
+ * cluster 300 100         (one line per cluster)
+ * </pre>
+ *
+ * and compiled into a LevelPack, which stores them in the fixed binary
+ * layout of writeTo.  Sizes, positions of monitors and clusters, counts
+ * and the name's length in bytes must lie between 0 and 32767, which
+ * parse checks.  A definition never changes once read, so any
+ * number of levels may be built from it at once.
+ */
+class LevelDefinition {
+	public static final int DEGEN_REGEN = 1;
+	public static final int PUNCH_RESET = 2;
+
+	private String name = "";
+	private int width = Main.SIZE;
+	private int height = Main.SIZE;
+	private double bowlX;
+	private double bowlY;
+	private double exitX;
+	private double exitY;
+	private double playerX;
+	private double playerY;
+	private int[][] monitorMatrix = new int[0][];
+	private double monitorSpeed = Level.MONITOR_SPEED;
+	private double playerSpeed = Level.PLAYER_SPEED;
+	private double guestSpeed = Level.GUEST_SPEED;
+	private int winTarget = Level.WIN_TARGET;
+	private int guestsPerCluster = (int) GuestCluster.GUEST_COUNT;
+	private int mechanics;
+	private int[][] clusterMatrix = new int[0][];
+
+	private LevelDefinition() {
+	}
+
+	/**
+	 * reads a definition in the .level text format
+	 * @param text where to read it from
+	 * @return the definition
+	 */
+	public static LevelDefinition parse(Reader text) throws IOException {
+		LevelDefinition d = new LevelDefinition();
+		ArrayList<int[]> clusters = new ArrayList<int[]>();
+		ArrayList<int[]> monitors = new ArrayList<int[]>();
+		BufferedReader in = new BufferedReader(text);
+		String line;
+		int lineNumber = 0;
+		while((line = in.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			String[] w = line.split("\\s+");
+			try {
+				switch(w[0]) {
+					case "name":
+						d.name = line.substring(4).trim();
+						checkShort(d.name.getBytes(StandardCharsets.UTF_8).length, lineNumber, "name length");
+						break;
+					case "size":
+						d.width = checkShort(Integer.parseInt(w[1]), lineNumber, w[0]);
+						d.height = checkShort(Integer.parseInt(w[2]), lineNumber, w[0]);
+						break;
+					case "bowl":
+						d.bowlX = Double.parseDouble(w[1]);
+						d.bowlY = Double.parseDouble(w[2]);
+						break;
+					case "exit":
+						d.exitX = Double.parseDouble(w[1]);
+						d.exitY = Double.parseDouble(w[2]);
+						break;
+					case "player":
+						d.playerX = Double.parseDouble(w[1]);
+						d.playerY = Double.parseDouble(w[2]);
+						break;
+					case "monitor":
+						monitors.add(point(w, lineNumber, monitors.size()));
+						break;
+					case "speeds":
+						d.monitorSpeed = Double.parseDouble(w[1]);
+						d.playerSpeed = Double.parseDouble(w[2]);
+						d.guestSpeed = Double.parseDouble(w[3]);
+						break;
+					case "winTarget":
+						d.winTarget = checkShort(Integer.parseInt(w[1]), lineNumber, w[0]);
+						break;
+					case "guestsPerCluster":
+						d.guestsPerCluster = checkShort(Integer.parseInt(w[1]), lineNumber, w[0]);
+						break;
+					case "mechanics":
+						for(int i = 1; i < w.length; i++) {
+							if(w[i].equals("degenRegen")) d.mechanics |= DEGEN_REGEN;
+							else if(w[i].equals("punchReset")) d.mechanics |= PUNCH_RESET;
+							else throw new IOException("line " + lineNumber + ": unknown mechanic " + w[i]);
+						}
+						break;
+					case "cluster":
+						clusters.add(point(w, lineNumber, clusters.size()));
+						break;
+					default:
+						throw new IOException("line " + lineNumber + ": unknown setting " + w[0]);
+				}
+			}
+			catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				throw new IOException("line " + lineNumber + ": bad values for " + w[0]);
+			}
+		}
+		if(monitors.isEmpty()) throw new IOException("a level needs at least one monitor");
+		d.clusterMatrix = clusters.toArray(new int[clusters.size()][]);
+		d.monitorMatrix = monitors.toArray(new int[monitors.size()][]);
+		return d;
+	}
+
+	//the binary layout stores these as shorts, so anything wider is refused rather than cut
+	private static int checkShort(int value, int lineNumber, String what) throws IOException {
+		if(value < 0 || value > Short.MAX_VALUE) {
+			throw new IOException("line " + lineNumber + ": " + what + " " + value + " is out of range");
+		}
+		return value;
+	}
+
+	//reads the point of a monitor or cluster line, the count-th of its kind
+	private static int[] point(String[] w, int lineNumber, int count) throws IOException {
+		checkShort(count + 1, lineNumber, "number of " + w[0] + "s");
+		return new int[] {checkShort(Integer.parseInt(w[1]), lineNumber, w[0]),
+				checkShort(Integer.parseInt(w[2]), lineNumber, w[0])};
+	}
+
+	/**
+	 * reads a definition in the .level text format from the classpath
+	 * @param resource the name of the resource
+	 * @return the definition
+	 */
+	public static LevelDefinition parseResource(String resource) throws IOException {
+		try(Reader text = new InputStreamReader(LevelDefinition.class.getClassLoader()
+				.getResourceAsStream(resource), StandardCharsets.UTF_8)) {
+			return parse(text);
+		}
+	}
+
+	/**
+	 * builds a playable level from the definition
+	 * @param seed the seed of the level's random choices
+	 * @return the level, ready to be stepped
+	 */
+	public Level build(long seed) {
+		return build(seed, monitorSpeed, playerSpeed, guestSpeed);
+	}
+
+	/**
+	 * builds a playable level from the definition with its own speeds
+	 * @param seed the seed of the level's random choices
+	 * @param monitorSpeed the speed of the monitor
+	 * @param playerSpeed the speed of the player
+	 * @param guestSpeed the speed of the guests
+	 * @return the level, ready to be stepped
+	 */
+	public Level build(long seed, double monitorSpeed, double playerSpeed, double guestSpeed) {
+		Level level = new Level(width, height, seed);
+		level.setSpeeds(monitorSpeed, playerSpeed, guestSpeed);
+		level.setWinTarget(winTarget);
+		level.setGuestsPerCluster(guestsPerCluster);
+		//every level gets its own copy, so no two levels share state
+		int[][] matrix = new int[clusterMatrix.length][];
+		for(int i = 0; i < matrix.length; i++) matrix[i] = clusterMatrix[i].clone();
+		level.setClusterMatrix(matrix);
+		level.initClusters();
+		level.initPunchBowl(bowlX, bowlY);
+		level.initExit(exitX, exitY);
+		level.initPlayer(playerX, playerY);
+		for(int[] monitor : monitorMatrix) level.initMonitor(monitor[0], monitor[1]);
+		if((mechanics & DEGEN_REGEN) != 0) level.initDegenRegen();
+		if((mechanics & PUNCH_RESET) != 0) level.initPunchReset();
+		return level;
+	}
+
+	/**
+	 * @return the name of the room
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of bytes writeTo will write
+	 */
+	public int byteSize() {
+		return 2 + name.getBytes(StandardCharsets.UTF_8).length + 4 + 6*4 + 3*4 + 2 + 2 + 1
+				+ 2 + monitorMatrix.length*4 + 2 + clusterMatrix.length*4;
+	}
+
+	/**
+	 * writes the definition in its binary layout
+	 * @param out where to write it
+	 */
+	public void writeTo(ByteBuffer out) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		out.putShort((short) nameBytes.length);
+		out.put(nameBytes);
+		out.putShort((short) width);
+		out.putShort((short) height);
+		out.putFloat((float) bowlX);
+		out.putFloat((float) bowlY);
+		out.putFloat((float) exitX);
+		out.putFloat((float) exitY);
+		out.putFloat((float) playerX);
+		out.putFloat((float) playerY);
+		out.putFloat((float) monitorSpeed);
+		out.putFloat((float) playerSpeed);
+		out.putFloat((float) guestSpeed);
+		out.putShort((short) winTarget);
+		out.putShort((short) guestsPerCluster);
+		out.put((byte) mechanics);
+		putPoints(out, monitorMatrix);
+		putPoints(out, clusterMatrix);
+	}
+
+	private static void putPoints(ByteBuffer out, int[][] points) {
+		out.putShort((short) points.length);
+		for(int[] point : points) {
+			out.putShort((short) point[0]);
+			out.putShort((short) point[1]);
+		}
+	}
+
+	/**
+	 * reads a definition written by writeTo
+	 * @param in where to read it from, positioned at its start
+	 * @return the definition
+	 */
+	public static LevelDefinition readFrom(ByteBuffer in) {
+		LevelDefinition d = new LevelDefinition();
+		byte[] nameBytes = new byte[in.getShort()];
+		in.get(nameBytes);
+		d.name = new String(nameBytes, StandardCharsets.UTF_8);
+		d.width = in.getShort();
+		d.height = in.getShort();
+		d.bowlX = in.getFloat();
+		d.bowlY = in.getFloat();
+		d.exitX = in.getFloat();
+		d.exitY = in.getFloat();
+		d.playerX = in.getFloat();
+		d.playerY = in.getFloat();
+		d.monitorSpeed = in.getFloat();
+		d.playerSpeed = in.getFloat();
+		d.guestSpeed = in.getFloat();
+		d.winTarget = in.getShort();
+		d.guestsPerCluster = in.getShort();
+		d.mechanics = in.get();
+		d.monitorMatrix = getPoints(in);
+		d.clusterMatrix = getPoints(in);
+		return d;
+	}
+
+	private static int[][] getPoints(ByteBuffer in) {
+		int[][] points = new int[in.getShort()][];
+		for(int i = 0; i < points.length; i++) {
+			points[i] = new int[] {in.getShort(), in.getShort()};
+		}
+		return points;
+	}
+}
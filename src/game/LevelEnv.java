@@ -0,0 +1,167 @@
+package game;
+
+/**
+ * A level wrapped for automated players that learn: reset it with a
+ * seed, step it with an action, and read what it looks like into a
+ * buffer of doubles, the way Gym environments are driven.  Nothing here
+ * touches JavaFX, and resetting reuses the level, so an episode, a
+ * step and an observation allocate nothing.
+ *
+ * An action is a mask of PlayerInput bits, from 0 to ACTIONS - 1, held
+ * for getFrameSkip steps.  The reward is the number of guests poisoned
+ * during those steps, less CAUGHT_PENALTY if the player is caught.  An
+ * episode ends when the player wins, is caught or runs out of steps.
+ *
+ * An observation is getObservationSize doubles: the player, every
+ * monitor and the bowl as x and y over the width and height of the
+ * room, whether the bowl is poisoned, the score over the number needed
+ * to win, and then the center and safety of every cluster.
+ */
+class LevelEnv {
+	public static final int ACTIONS = PlayerInput.ALL + 1;
+	public static final double CAUGHT_PENALTY = 1;
+	public static final int MAX_STEPS = 18000;
+
+	private Level level;
+	private int frameSkip = 1;
+	private int maxSteps = MAX_STEPS;
+	private int steps;
+	private boolean won;
+	private boolean caught;
+
+	/**
+	 * @param number which installed level to play
+	 */
+	public LevelEnv(int number) {
+		this(LevelFactory.build(number, 0));
+	}
+
+	/**
+	 * @param level the level to play, which reset puts back in the
+	 * state it was built in
+	 */
+	public LevelEnv(Level level) {
+		this.level = level;
+	}
+
+	/**
+	 * @param frameSkip how many steps of the level each action is
+	 * held for
+	 */
+	public void setFrameSkip(int frameSkip) {
+		this.frameSkip = frameSkip;
+	}
+
+	/**
+	 * @return how many steps of the level each action is held for
+	 */
+	public int getFrameSkip() {
+		return frameSkip;
+	}
+
+	/**
+	 * @param maxSteps the number of actions after which an
+	 * episode ends undecided
+	 */
+	public void setMaxSteps(int maxSteps) {
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * starts a new episode
+	 * @param seed the seed of the level's random choices
+	 */
+	public void reset(long seed) {
+		level.reset(seed);
+		level.setInput(0);
+		steps = 0;
+		won = false;
+		caught = false;
+	}
+
+	/**
+	 * holds an action for frameSkip steps of the level, or until
+	 * the episode ends
+	 * @param action a mask of PlayerInput bits
+	 * @return the reward the action earned
+	 */
+	public double step(int action) {
+		int score = level.getGuestPoisoned();
+		level.setInput(action);
+		for(int i = 0; i < frameSkip && !won && !caught; i++) {
+			level.step(Main.SECOND_DELAY);
+			caught = level.lose();
+			won = level.win();
+		}
+		steps++;
+		return level.getGuestPoisoned() - score - (caught ? CAUGHT_PENALTY : 0);
+	}
+
+	/**
+	 * @return whether the episode has ended, and reset must be
+	 * called before the next step
+	 */
+	public boolean isDone() {
+		return won || caught || steps >= maxSteps;
+	}
+
+	/**
+	 * @return whether the episode ended with a win
+	 */
+	public boolean isWon() {
+		return won;
+	}
+
+	/**
+	 * @return whether the episode ended with the player caught
+	 */
+	public boolean isCaught() {
+		return caught;
+	}
+
+	/**
+	 * @return the number of actions taken this episode
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return the level played
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the number of doubles an observation takes
+	 */
+	public int getObservationSize() {
+		return 2 + 2*level.getMonitorCount() + 4 + 3*level.getClusters().length;
+	}
+
+	/**
+	 * writes what the level looks like now
+	 * @param out the buffer written to
+	 * @param at where in the buffer the observation starts
+	 */
+	public void observe(double[] out, int at) {
+		double width = level.getWidth();
+		double height = level.getHeight();
+		out[at++] = level.getPlayer().getX()/width;
+		out[at++] = level.getPlayer().getY()/height;
+		for(int i = 0; i < level.getMonitorCount(); i++) {
+			out[at++] = level.getMonitor(i).getX()/width;
+			out[at++] = level.getMonitor(i).getY()/height;
+		}
+		out[at++] = level.getPunchBowlX()/width;
+		out[at++] = level.getPunchBowlY()/height;
+		out[at++] = level.isPunchBowlPoisoned() ? 1 : 0;
+		out[at++] = (double) level.getGuestPoisoned()/level.getWinTarget();
+		for(GuestCluster cluster : level.getClusters()) {
+			out[at++] = cluster.getCenterX()/width;
+			out[at++] = cluster.getCenterY()/height;
+			out[at++] = cluster.isSafe() ? 1 : 0;
+		}
+	}
+}
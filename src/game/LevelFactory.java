@@ -0,0 +1,81 @@
+package game;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the party rooms of the game without any JavaFX, so the game,
+ * replays and other headless tools all play the same rooms.  The rooms
+ * come from the LevelPack compiled to LevelPack.RESOURCE.  While
+ * editing levels, run with -Dgame.levelSources=true to compile the
+ * levels/levelN.level files on the classpath instead, without
+ * recompiling the pack.
+ */
+class LevelFactory {
+	public static final String LEVEL_RESOURCE = "levels/level%d.level";
+	public static final String SOURCES_PROPERTY = "game.levelSources";
+
+	private LevelFactory() {
+	}
+
+	//loaded once, the first time a room is built
+	private static class Rooms {
+		private static final LevelPack PACK = load();
+
+		private static LevelPack load() {
+			try {
+				if(!Boolean.getBoolean(SOURCES_PROPERTY)) return LevelPack.load(LevelPack.RESOURCE);
+				List<LevelDefinition> rooms = new ArrayList<LevelDefinition>();
+				for(int n = 1; LevelFactory.class.getClassLoader()
+						.getResource(String.format(LEVEL_RESOURCE, n)) != null; n++) {
+					rooms.add(LevelDefinition.parseResource(String.format(LEVEL_RESOURCE, n)));
+				}
+				return LevelPack.compile(rooms);
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException("Could not load the levels", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rooms installed
+	 */
+	public static int count() {
+		return Rooms.PACK.size();
+	}
+
+	/**
+	 * @param number which room, from 1 to count()
+	 * @return the definition of the room
+	 */
+	public static LevelDefinition get(int number) {
+		return Rooms.PACK.get(number - 1);
+	}
+
+	/**
+	 * builds a level as its definition describes it
+	 * @param number which level to build, from 1 to count()
+	 * @param seed the seed of the level's random choices
+	 * @return the level, ready to be stepped
+	 */
+	public static Level build(int number, long seed) {
+		return get(number).build(seed);
+	}
+
+	/**
+	 * builds a level with its own speeds
+	 * @param number which level to build, from 1 to count()
+	 * @param seed the seed of the level's random choices
+	 * @param monitorSpeed the speed of the monitor
+	 * @param playerSpeed the speed of the player
+	 * @param guestSpeed the speed of the guests
+	 * @return the level, ready to be stepped
+	 */
+	public static Level build(int number, long seed,
+			double monitorSpeed, double playerSpeed, double guestSpeed) {
+		return get(number).build(seed, monitorSpeed, playerSpeed, guestSpeed);
+	}
+}
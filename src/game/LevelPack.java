@@ -0,0 +1,149 @@
+package game;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every room of the game compiled into one binary buffer: a header
+ * holding MAGIC, VERSION, the number of rooms and the offset of each
+ * room, followed by the rooms in the layout of LevelDefinition.writeTo.
+ * Opening a pack maps the file and reads only the header; a room is
+ * decoded the first time it is asked for, so opening costs the same
+ * with three rooms installed as with hundreds.
+ *
+ * The game loads its rooms from RESOURCE on the classpath.  Run this
+ * with the pack to write followed by the .level files to put in it, in
+ * order, whenever a .level file changes:
+ *
+ * <pre>
+ * java game.LevelPack src/levels/levels.pack src/levels/level*.level
+ * </pre>
+ */
+class LevelPack {
+	public static final int MAGIC = 0x50545056;
+	public static final int VERSION = 2;
+	public static final String RESOURCE = "levels/levels.pack";
+
+	private ByteBuffer buffer;
+	private LevelDefinition[] definitions;
+
+	private LevelPack(ByteBuffer buffer) throws IOException {
+		if(buffer.getInt(0) != MAGIC) throw new IOException("not a level pack");
+		if(buffer.getInt(4) != VERSION) throw new IOException("unsupported level pack version " + buffer.getInt(4));
+		this.buffer = buffer;
+		definitions = new LevelDefinition[buffer.getInt(8)];
+	}
+
+	/**
+	 * maps a compiled pack into memory
+	 * @param file the pack
+	 * @return the pack
+	 */
+	public static LevelPack open(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new LevelPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * reads a compiled pack from the classpath
+	 * @param resource the name of the resource
+	 * @return the pack
+	 */
+	public static LevelPack load(String resource) throws IOException {
+		InputStream in = LevelPack.class.getClassLoader().getResourceAsStream(resource);
+		if(in == null) throw new IOException(resource + " is not on the classpath; compile it with LevelPack");
+		try(InputStream pack = in) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			for(int read; (read = pack.read(chunk)) > 0; ) bytes.write(chunk, 0, read);
+			return new LevelPack(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+	}
+
+	/**
+	 * compiles definitions into a pack held in memory
+	 * @param rooms the definitions, in order
+	 * @return the pack
+	 */
+	public static LevelPack compile(List<LevelDefinition> rooms) throws IOException {
+		int size = 12 + rooms.size()*4;
+		for(LevelDefinition room : rooms) size += room.byteSize();
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(rooms.size());
+		int offset = 12 + rooms.size()*4;
+		for(LevelDefinition room : rooms) {
+			buffer.putInt(offset);
+			offset += room.byteSize();
+		}
+		for(LevelDefinition room : rooms) room.writeTo(buffer);
+		buffer.flip();
+		return new LevelPack(buffer);
+	}
+
+	/**
+	 * @return the number of rooms in the pack
+	 */
+	public int size() {
+		return definitions.length;
+	}
+
+	/**
+	 * @param index which room, from 0
+	 * @return the definition of the room
+	 */
+	public synchronized LevelDefinition get(int index) {
+		if(definitions[index] == null) {
+			ByteBuffer room = buffer.duplicate();
+			room.position(buffer.getInt(12 + index*4));
+			definitions[index] = LevelDefinition.readFrom(room);
+		}
+		return definitions[index];
+	}
+
+	/**
+	 * writes the pack to a file
+	 * @param file where to write it
+	 */
+	public void write(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer all = buffer.duplicate();
+			all.position(0);
+			while(all.hasRemaining()) channel.write(all);
+		}
+	}
+
+	/**
+	 * Compiles .level files into a pack.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("usage: LevelPack <pack> <level file>...");
+			System.exit(1);
+		}
+		List<LevelDefinition> rooms = new ArrayList<LevelDefinition>();
+		for(int i = 1; i < args.length; i++) {
+			try(Reader text = Files.newBufferedReader(Paths.get(args[i]))) {
+				rooms.add(LevelDefinition.parse(text));
+			}
+			catch(IOException e) {
+				throw new IOException(args[i] + ": " + e.getMessage(), e);
+			}
+		}
+		compile(rooms).write(Paths.get(args[0]));
+		System.out.println("Wrote " + rooms.size() + " rooms to " + args[0]);
+	}
+}
@@ -0,0 +1,65 @@
+package game;
+
+/**
+ * The single source of randomness of a level.  It is a SplitMix64
+ * generator whose whole state is one long, so seeding it makes a
+ * level replay exactly and saving the state captures it.
+ */
+class LevelRandom {
+
+	private long state;
+
+	/**
+	 * @param seed the seed every random choice of the level follows from
+	 */
+	public LevelRandom(long seed) {
+		state = seed;
+	}
+
+	/**
+	 * @return the next random long
+	 */
+	public long nextLong() {
+		long z = (state += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return a random double from 0 inclusive to 1 exclusive
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param bound the upper bound, exclusive
+	 * @return a random int from 0 inclusive to bound exclusive
+	 */
+	public int nextInt(int bound) {
+		return (int) ((nextLong() >>> 1) % bound);
+	}
+
+	/**
+	 * @param range the largest magnitude
+	 * @return a random double from -range to range
+	 */
+	public double nextDouble(double range) {
+		return 2*range*nextDouble() - range;
+	}
+
+	/**
+	 * @return the whole state of the generator
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * @param state a state returned by getState earlier
+	 */
+	public void setState(long state) {
+		this.state = state;
+	}
+}
@@ -0,0 +1,18 @@
+package game;
+
+/**
+ * Something that draws a Level.  The renderer lays out the room from
+ * the level when it is made, and from then on copies the state of the
+ * level, as a LevelSnapshot taken after a step, to the screen once per
+ * frame, so it never reads the level while it is being stepped.
+ */
+interface LevelRenderer {
+
+	/**
+	 * draws the state of the level between its last two steps
+	 * @param snapshot the level as of its latest step
+	 * @param alpha how far past the previous step to draw, from
+	 * 0 for the previous step to 1 for the latest one
+	 */
+	void update(LevelSnapshot snapshot, double alpha);
+}
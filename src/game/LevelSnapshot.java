@@ -0,0 +1,328 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * A copy of everything a view draws of a Level after one step: the
+ * score, the bowl, the opacity and head count of every cluster, and
+ * where the guests, the player and the monitors were before and after
+ * the step.  The simulation thread captures the level into a snapshot
+ * and hands it over whole, so the JavaFX thread draws from a copy no
+ * one else is writing to while the level goes on stepping.
+ *
+ * Like GuestStore, a snapshot lists the guests that appeared,
+ * disappeared or stopped.  A snapshot that was never drawn keeps its
+ * list when it is captured into again, so a view that skips a step
+ * still hears about every such guest.
+ *
+ * While profiling, the simulation also copies its FrameProfiler into
+ * a snapshot now and then, so the timings of its steps reach the
+ * JavaFX thread the same way the level does.  An undrawn snapshot keeps
+ * its copy too.
+ */
+class LevelSnapshot {
+	private long sequence;
+	private long nanos;
+	private int guestPoisoned;
+	private int winTarget;
+	private boolean punchBowlPoisoned;
+	private double[] clusterOpacity;
+	private int[] clusterDormant;
+	private int guestCount;
+	private double[] x = new double[0];
+	private double[] y = new double[0];
+	private double[] prevX = new double[0];
+	private double[] prevY = new double[0];
+	private boolean[] inPlay = new boolean[0];
+	private int[] active = new int[0];
+	private int activeCount;
+	private int[] dirty = new int[0];
+	private boolean[] listed = new boolean[0];
+	private int dirtyCount;
+	private double[] playerPosition = new double[4];
+	private double[] monitorPositions;
+	private FrameProfiler profile;
+	private boolean profiled;
+	//peeked at by the JavaFX thread while the simulation may be capturing
+	private volatile boolean fresh;
+
+	/**
+	 * makes an empty snapshot sized for a level
+	 * @param level the level the snapshot will be captured from
+	 */
+	public LevelSnapshot(Level level) {
+		clusterOpacity = new double[level.getClusters().length];
+		clusterDormant = new int[clusterOpacity.length];
+		monitorPositions = new double[4*level.getMonitorCount()];
+		ensureCapacity(level.getGuests().size());
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity <= inPlay.length) return;
+		capacity = Math.max(capacity, 2*inPlay.length);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		prevX = Arrays.copyOf(prevX, capacity);
+		prevY = Arrays.copyOf(prevY, capacity);
+		inPlay = Arrays.copyOf(inPlay, capacity);
+		active = Arrays.copyOf(active, capacity);
+		dirty = Arrays.copyOf(dirty, capacity);
+		listed = Arrays.copyOf(listed, capacity);
+	}
+
+	/**
+	 * copies the state of a level after a step, and takes over
+	 * the guests its store lists as dirty
+	 * @param level the level, which must not be stepped meanwhile
+	 * @param sequence the number of the capture, counting up
+	 * @param nanos the moment the step's slice of time ended,
+	 * on the System.nanoTime clock
+	 */
+	public void capture(Level level, long sequence, long nanos) {
+		capture(level, sequence, nanos, null);
+	}
+
+	/**
+	 * copies the state of a level after a step along with the
+	 * timings of the steps so far
+	 * @param level the level, which must not be stepped meanwhile
+	 * @param sequence the number of the capture, counting up
+	 * @param nanos the moment the step's slice of time ended,
+	 * on the System.nanoTime clock
+	 * @param profiler the profiler the steps were timed with,
+	 * or null to copy no timings this time
+	 */
+	public void capture(Level level, long sequence, long nanos, FrameProfiler profiler) {
+		this.sequence = sequence;
+		this.nanos = nanos;
+		guestPoisoned = level.getGuestPoisoned();
+		winTarget = level.getWinTarget();
+		punchBowlPoisoned = level.isPunchBowlPoisoned();
+		GuestCluster[] clusters = level.getClusters();
+		for(int i = 0; i < clusters.length; i++) {
+			clusterOpacity[i] = clusters[i].getOpacity();
+			clusterDormant[i] = clusters[i].getDormant();
+		}
+		GuestStore store = level.getGuests();
+		guestCount = store.size();
+		ensureCapacity(guestCount);
+		for(int id = 0; id < guestCount; id++) {
+			x[id] = store.getX(id);
+			y[id] = store.getY(id);
+			prevX[id] = store.getX(id, 0);
+			prevY[id] = store.getY(id, 0);
+			inPlay[id] = store.is(id, GuestStore.IN_PLAY);
+		}
+		activeCount = store.getActiveCount();
+		for(int i = 0; i < activeCount; i++) active[i] = store.getActive(i);
+		if(!fresh) {
+			for(int i = 0; i < dirtyCount; i++) listed[dirty[i]] = false;
+			dirtyCount = 0;
+			profiled = false;
+		}
+		if(profiler != null) {
+			if(profile == null) profile = new FrameProfiler();
+			profile.copyFrom(profiler);
+			profiled = true;
+		}
+		for(int i = 0; i < store.getDirtyCount(); i++) {
+			int id = store.getDirty(i);
+			if(listed[id]) continue;
+			listed[id] = true;
+			dirty[dirtyCount++] = id;
+		}
+		store.clearDirty();
+		copyPosition(level.getPlayer(), playerPosition, 0);
+		for(int i = 0; i < level.getMonitorCount(); i++) {
+			copyPosition(level.getMonitor(i), monitorPositions, 4*i);
+		}
+		fresh = true;
+	}
+
+	private static void copyPosition(PartyGuest guest, double[] to, int at) {
+		to[at] = guest.getX(0);
+		to[at + 1] = guest.getY(0);
+		to[at + 2] = guest.getX();
+		to[at + 3] = guest.getY();
+	}
+
+	/**
+	 * @return whether the snapshot was captured since it was
+	 * last taken to be drawn
+	 */
+	public boolean isFresh() {
+		return fresh;
+	}
+
+	/**
+	 * marks the snapshot as taken to be drawn
+	 */
+	public void take() {
+		fresh = false;
+	}
+
+	/**
+	 * @return whether the snapshot holds a copy of the timings
+	 * of the steps
+	 */
+	public boolean hasProfile() {
+		return profiled;
+	}
+
+	/**
+	 * @return the copy of the timings of the steps, if hasProfile
+	 */
+	public FrameProfiler getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the number of the capture, one higher every step
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the moment the step's slice of time ended, on the
+	 * System.nanoTime clock
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return the number of guests who have been poisoned
+	 */
+	public int getGuestPoisoned() {
+		return guestPoisoned;
+	}
+
+	/**
+	 * @return the amount of guests who have exited
+	 * and the number of guests it takes to win
+	 */
+	public String getScoreText() {
+		return "Score: " + guestPoisoned + "/" + winTarget;
+	}
+
+	/**
+	 * @return if the punch bowl is poisoned
+	 */
+	public boolean isPunchBowlPoisoned() {
+		return punchBowlPoisoned;
+	}
+
+	/**
+	 * @return the opacity a cluster should be drawn with
+	 */
+	public double getClusterOpacity(int cluster) {
+		return clusterOpacity[cluster];
+	}
+
+	/**
+	 * @return the number of guests of a cluster only kept as a
+	 * head count
+	 */
+	public int getClusterDormant(int cluster) {
+		return clusterDormant[cluster];
+	}
+
+	/**
+	 * @return one past the highest guest id in use
+	 */
+	public int getGuestCount() {
+		return guestCount;
+	}
+
+	/**
+	 * @return whether a guest is in the room
+	 */
+	public boolean isInPlay(int id) {
+		return inPlay[id];
+	}
+
+	/**
+	 * @param alpha how far from the previous step to the
+	 * current one
+	 * @return the x location of a guest in between the two steps
+	 */
+	public double getX(int id, double alpha) {
+		return prevX[id] + (x[id] - prevX[id])*alpha;
+	}
+
+	/**
+	 * @param alpha how far from the previous step to the
+	 * current one
+	 * @return the y location of a guest in between the two steps
+	 */
+	public double getY(int id, double alpha) {
+		return prevY[id] + (y[id] - prevY[id])*alpha;
+	}
+
+	/**
+	 * @return the number of guests that were moving
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * @param i an index below getActiveCount
+	 * @return the id of the i-th moving guest
+	 */
+	public int getActive(int i) {
+		return active[i];
+	}
+
+	/**
+	 * @return the number of guests that appeared, disappeared
+	 * or stopped since the last snapshot that was drawn
+	 */
+	public int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * @param i an index below getDirtyCount
+	 * @return the id of the i-th dirty guest
+	 */
+	public int getDirty(int i) {
+		return dirty[i];
+	}
+
+	/**
+	 * @return the x location of the player in between the two steps
+	 */
+	public double getPlayerX(double alpha) {
+		return playerPosition[0] + (playerPosition[2] - playerPosition[0])*alpha;
+	}
+
+	/**
+	 * @return the y location of the player in between the two steps
+	 */
+	public double getPlayerY(double alpha) {
+		return playerPosition[1] + (playerPosition[3] - playerPosition[1])*alpha;
+	}
+
+	/**
+	 * @return the number of monitors
+	 */
+	public int getMonitorCount() {
+		return monitorPositions.length/4;
+	}
+
+	/**
+	 * @return the x location of the i-th monitor in between the two steps
+	 */
+	public double getMonitorX(int i, double alpha) {
+		return monitorPositions[4*i] + (monitorPositions[4*i + 2] - monitorPositions[4*i])*alpha;
+	}
+
+	/**
+	 * @return the y location of the i-th monitor in between the two steps
+	 */
+	public double getMonitorY(int i, double alpha) {
+		return monitorPositions[4*i + 1] + (monitorPositions[4*i + 3] - monitorPositions[4*i + 1])*alpha;
+	}
+}
@@ -0,0 +1,188 @@
+package game;
+
+import java.util.Arrays;
+
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import javafx.scene.text.Text;
+
+/**
+ * Draws a Level with scene graph nodes.  The view owns every node
+ * of the room and copies each snapshot of the level onto them in
+ * update, so the level itself never touches JavaFX.  Its static helpers also
+ * draw the icons of the main menu.  The guests of a dormant cluster
+ * are drawn as one impostor labelled with their head count, and a
+ * sprite is only made for each guest id the level actually uses.
+ *
+ * Each frame only pushes what changed to JavaFX: the score, bowl and
+ * cluster opacities are compared against what was last shown, and of
+ * the guests only the moving ones and the ones the snapshot lists as
+ * dirty are touched, so a room of guests standing still costs nothing
+ * to draw.
+ */
+class LevelView implements LevelRenderer {
+
+	private Circle punchBowl;
+	private Circle[] clusters;
+	private GuestSprite[] impostors;
+	private Text[] headCounts;
+	private int[] shownCounts;
+	private Group crowd;
+	private double[] shownOpacities;
+	private GuestSprite[] guests;
+	private int shownGuests;
+	private GuestSprite player;
+	private GuestSprite[] monitors;
+	private Text score;
+	private int shownScore;
+	private boolean shownPoisoned;
+	private long shownSequence = -1;
+
+	/**
+	 * builds the nodes for every object in the level
+	 * @param root the node the room is drawn in
+	 * @param level the level to draw
+	 */
+	public LevelView(Group root, Level level) {
+		clusters = new Circle[level.getClusters().length];
+		shownOpacities = new double[clusters.length];
+		guests = new GuestSprite[0];
+		score = new Text(500, 25, level.getScoreText());
+		shownScore = level.getGuestPoisoned();
+		root.getChildren().add(score);
+		for(GuestCluster cluster : level.getClusters()) {
+			clusters[cluster.getId()] = drawCluster(root, cluster);
+			shownOpacities[cluster.getId()] = cluster.getOpacity();
+		}
+		if(level.isCrowdLod()) {
+			impostors = new GuestSprite[clusters.length];
+			headCounts = new Text[clusters.length];
+			shownCounts = new int[clusters.length];
+			for(GuestCluster cluster : level.getClusters()) {
+				int id = cluster.getId();
+				impostors[id] = drawSprite(root, "guest", cluster.getCenterX(), cluster.getCenterY());
+				headCounts[id] = new Text(cluster.getCenterX() + PartyGuest.SPRITE_SIZE/2, cluster.getCenterY(), "");
+				root.getChildren().add(headCounts[id]);
+				shownCounts[id] = -1;
+			}
+		}
+		crowd = new Group();
+		root.getChildren().add(crowd);
+		punchBowl = new Circle(level.getPunchBowlX(), level.getPunchBowlY(), Level.BOWL_RADIUS, Color.RED);
+		root.getChildren().add(punchBowl);
+		shownPoisoned = false;
+		player = drawGuest(root, level.getPlayer());
+		monitors = new GuestSprite[level.getMonitorCount()];
+		for(int i = 0; i < monitors.length; i++) {
+			monitors[i] = drawGuest(root, level.getMonitor(i));
+		}
+	}
+	/**
+	 * draws a cluster without its guests
+	 * @param root the node to draw in
+	 * @param cluster the cluster to draw
+	 * @return the circle showing the cluster
+	 */
+	public static Circle drawCluster(Group root, GuestCluster cluster) {
+		Circle c = new Circle(cluster.getCenterX(), cluster.getCenterY(), GuestCluster.RADIUS, Color.BLUE);
+		c.setOpacity(cluster.getOpacity());
+		root.getChildren().add(c);
+		return c;
+	}
+	/**
+	 * draws a guest at its current location
+	 * @param root the node to draw in
+	 * @param guest the guest to draw
+	 * @return the sprite showing the guest
+	 */
+	public static GuestSprite drawGuest(Group root, PartyGuest guest) {
+		return drawSprite(root, guest.getCode(), guest.getX(), guest.getY());
+	}
+	/**
+	 * draws a type of guest at a location
+	 * @param root the node to draw in
+	 * @param code the type of guest
+	 * @param x x location of the guest
+	 * @param y y location of the guest
+	 * @return the sprite showing the guest
+	 */
+	public static GuestSprite drawSprite(Group root, String code, double x, double y) {
+		GuestSprite sprite = new GuestSprite(code);
+		sprite.moveTo(x, y);
+		root.getChildren().add(sprite);
+		return sprite;
+	}
+	@Override
+	public void update(LevelSnapshot snapshot, double alpha) {
+		if(snapshot.getGuestPoisoned() != shownScore) {
+			shownScore = snapshot.getGuestPoisoned();
+			score.setText(snapshot.getScoreText());
+		}
+		if(snapshot.isPunchBowlPoisoned() != shownPoisoned) {
+			shownPoisoned = snapshot.isPunchBowlPoisoned();
+			if(shownPoisoned) {
+				punchBowl.setFill(Color.GREEN);
+			}
+			else {
+				punchBowl.setFill(Color.RED);
+			}
+		}
+		for(int id = 0; id < clusters.length; id++) {
+			if(snapshot.getClusterOpacity(id) != shownOpacities[id]) {
+				shownOpacities[id] = snapshot.getClusterOpacity(id);
+				clusters[id].setOpacity(shownOpacities[id]);
+			}
+		}
+		if(impostors != null) updateImpostors(snapshot);
+		updateGuests(snapshot, alpha);
+		player.moveTo(snapshot.getPlayerX(alpha), snapshot.getPlayerY(alpha));
+		for(int i = 0; i < monitors.length; i++) {
+			monitors[i].moveTo(snapshot.getMonitorX(i, alpha), snapshot.getMonitorY(i, alpha));
+		}
+	}
+
+	private void updateGuests(LevelSnapshot snapshot, double alpha) {
+		if(snapshot.getGuestCount() > guests.length) addSprites(snapshot.getGuestCount());
+		//a reset can leave fewer guests than were shown
+		for(int id = snapshot.getGuestCount(); id < shownGuests; id++) {
+			guests[id].setVisible(false);
+		}
+		shownGuests = snapshot.getGuestCount();
+		//the same snapshot is drawn until the next step, but its dirty guests only need showing once
+		if(snapshot.getSequence() != shownSequence) {
+			shownSequence = snapshot.getSequence();
+			for(int i = 0; i < snapshot.getDirtyCount(); i++) {
+				int id = snapshot.getDirty(i);
+				if(id >= shownGuests) continue;
+				guests[id].setVisible(snapshot.isInPlay(id));
+				guests[id].moveTo(snapshot.getX(id, alpha), snapshot.getY(id, alpha));
+			}
+		}
+		for(int i = 0; i < snapshot.getActiveCount(); i++) {
+			int id = snapshot.getActive(i);
+			guests[id].moveTo(snapshot.getX(id, alpha), snapshot.getY(id, alpha));
+		}
+	}
+
+	//makes sprites for guest ids the level started using since the last frame
+	private void addSprites(int count) {
+		int old = guests.length;
+		guests = Arrays.copyOf(guests, count);
+		for(int id = old; id < count; id++) {
+			guests[id] = drawSprite(crowd, "guest", 0, 0);
+			guests[id].setVisible(false);
+		}
+	}
+
+	private void updateImpostors(LevelSnapshot snapshot) {
+		for(int id = 0; id < impostors.length; id++) {
+			int dormant = snapshot.getClusterDormant(id);
+			if(dormant == shownCounts[id]) continue;
+			shownCounts[id] = dormant;
+			impostors[id].setVisible(dormant > 0);
+			headCounts[id].setVisible(dormant > 0);
+			headCounts[id].setText(Integer.toString(dormant));
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package game;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Plays many players against a GameServer at once to load test it.
+ * Each player holds a new random set of actions every half second, the
+ * way RandomPolicy does, and decodes every frame the server sends.  All
+ * players share one thread, so hundreds of them cost the server far
+ * more than they cost the client.  Once they are all connected, a
+ * couple of seconds are played before anything is counted, for the
+ * server to warm up.
+ *
+ * At the end the client reports the frames each player got per second
+ * against the step rate, how many steps never arrived, the spread of
+ * the gaps between frames and the bandwidth per player.  With -serve
+ * it starts a server with that many workers in the same process on a
+ * free loopback port and reports as the server too, so one command
+ * measures how many rooms a core can tick.
+ *
+ * Usage: LoadClient [-host H] [-port P] [-players N] [-seconds S]
+ *                   [-serve T] [-level N]
+ */
+class LoadClient {
+	public static final long CHOICE_NANOS = 500000000L;
+	public static final long WARMUP_NANOS = 2000000000L;
+	public static final int ACTIONS = PlayerInput.ALL;
+
+	private String host = "127.0.0.1";
+	private int port = GameServer.DEFAULT_PORT;
+	private int players = 100;
+	private double seconds = 30;
+	private int serverThreads;
+	private int levelNumber = 1;
+	private LevelRandom random = new LevelRandom(System.nanoTime());
+	private LatencyHistogram gaps = new LatencyHistogram();
+	private long frames;
+	private long missedTicks;
+	private long bytes;
+	private boolean counting;
+
+	private LoadClient() {
+	}
+
+	//one connection, with what it holds and the partly read frame
+	private static class Player {
+		SocketChannel channel;
+		ByteBuffer in = ByteBuffer.allocate(4096);
+		ByteBuffer out = ByteBuffer.allocate(64);
+		int held;
+		long nextChoice;
+		long lastFrame;
+		long lastTick = -1;
+		SnapshotCodec codec = new SnapshotCodec();
+	}
+
+	private void run() throws Exception {
+		GameServer server = null;
+		Thread serving = null;
+		if(serverThreads > 0) {
+			server = new GameServer(0, serverThreads, levelNumber);
+			port = server.start();
+			GameServer local = server;
+			serving = new Thread(() -> {
+				try {
+					local.serve();
+				}
+				catch(IOException e) {
+					e.printStackTrace();
+				}
+			}, "server");
+			serving.start();
+		}
+		Selector selector = Selector.open();
+		long now = System.nanoTime();
+		for(int i = 0; i < players; i++) {
+			Player player = new Player();
+			player.channel = SocketChannel.open(new InetSocketAddress(host, port));
+			player.channel.socket().setTcpNoDelay(true);
+			player.channel.configureBlocking(false);
+			player.channel.register(selector, SelectionKey.OP_READ, player);
+			player.nextChoice = now + (long) random.nextDouble(CHOICE_NANOS);
+		}
+		now = System.nanoTime();
+		long start = now + WARMUP_NANOS;
+		long end = start + (long) (seconds*1e9);
+		while(now < end) {
+			counting = now >= start;
+			selector.select(1);
+			now = System.nanoTime();
+			for(SelectionKey key : selector.selectedKeys()) {
+				if(key.isValid() && key.isReadable()) read((Player) key.attachment(), now);
+			}
+			selector.selectedKeys().clear();
+			for(SelectionKey key : selector.keys()) {
+				Player player = (Player) key.attachment();
+				if(now >= player.nextChoice) choose(player, now);
+			}
+		}
+		double elapsed = (now - start)/1e9;
+		for(SelectionKey key : selector.keys()) key.channel().close();
+		selector.close();
+		if(server != null) {
+			server.stop();
+			serving.join();
+		}
+		report(System.out, elapsed);
+	}
+
+	//holds a new random set of actions, sending a press or release for each that changed
+	private void choose(Player player, long now) throws IOException {
+		int held = random.nextInt(ACTIONS + 1);
+		int changed = held ^ player.held;
+		player.held = held;
+		player.nextChoice = now + CHOICE_NANOS;
+		for(int action = 1; action <= ACTIONS; action <<= 1) {
+			if((changed & action) == 0 || player.out.remaining() < GameServer.INPUT_SIZE) continue;
+			player.out.put((byte) action);
+			player.out.put((byte) ((held & action) != 0 ? 1 : 0));
+		}
+		player.out.flip();
+		player.channel.write(player.out);
+		player.out.compact();
+	}
+
+	//reads whatever arrived and counts every whole frame
+	private void read(Player player, long now) throws IOException {
+		int read = player.channel.read(player.in);
+		if(read < 0) throw new IOException("the server hung up");
+		if(counting) bytes += read;
+		ByteBuffer in = player.in;
+		in.flip();
+		while(in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+			int length = in.getInt();
+			int end = in.position() + length;
+			long tick = player.codec.decode(in);
+			if(in.position() != end) throw new IOException("a frame of " + length + " bytes did not decode");
+			if(counting && player.lastTick >= 0) {
+				missedTicks += tick - player.lastTick - 1;
+				gaps.record(now - player.lastFrame);
+			}
+			player.lastTick = tick;
+			player.lastFrame = now;
+			if(counting) frames++;
+		}
+		if(in.remaining() >= 4 && 4 + in.getInt(in.position()) > in.capacity()) {
+			ByteBuffer grown = ByteBuffer.allocate(2*(4 + in.getInt(in.position())));
+			grown.put(in);
+			player.in = grown;
+		}
+		else in.compact();
+	}
+
+	private void report(PrintStream out, double elapsed) {
+		out.printf("%d players for %.1fs: %.1f frames/s each of %.1f, %.2f%% of steps missed, %.1f KB/s each%n",
+				players, elapsed, frames/elapsed/players, 1/Main.SECOND_DELAY,
+				100.0*missedTicks/Math.max(1, frames + missedTicks), bytes/elapsed/players/1024);
+		out.printf("gap between frames: p50 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms%n",
+				gaps.getValueAtPercentile(50)/1e6, gaps.getValueAtPercentile(99)/1e6,
+				gaps.getValueAtPercentile(99.9)/1e6, gaps.getMax()/1e6);
+	}
+
+	/**
+	 * Runs the load described by the command line.
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadClient client = new LoadClient();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			switch(args[i]) {
+				case "-host":
+					client.host = args[i + 1];
+					break;
+				case "-port":
+					client.port = Integer.parseInt(args[i + 1]);
+					break;
+				case "-players":
+					client.players = Integer.parseInt(args[i + 1]);
+					break;
+				case "-seconds":
+					client.seconds = Double.parseDouble(args[i + 1]);
+					break;
+				case "-serve":
+					client.serverThreads = Integer.parseInt(args[i + 1]);
+					break;
+				case "-level":
+					client.levelNumber = Integer.parseInt(args[i + 1]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		client.run();
+	}
+}
@@ -1,11 +1,8 @@
 package game;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 
 /**
@@ -16,8 +13,7 @@ import javafx.util.Duration;
 public class Main extends Application {
     public static final int SIZE = 600;
     public static final int FRAMES_PER_SECOND = 60;
-    private static final int MILLISECOND_DELAY = 1000 / FRAMES_PER_SECOND;
-    private static final double SECOND_DELAY = 1.0 / FRAMES_PER_SECOND;
+    public static final double SECOND_DELAY = 1.0 / FRAMES_PER_SECOND;
 
     private Game myGame;
 
@@ -29,12 +25,15 @@ public class Main extends Application {
         s.setScene(scene);
         s.show();
 
-        KeyFrame frame = new KeyFrame(Duration.millis(MILLISECOND_DELAY),
-                                      e -> myGame.step(SECOND_DELAY));
-        Timeline animation = new Timeline();
-        animation.setCycleCount(Timeline.INDEFINITE);
-        animation.getKeyFrames().add(frame);
-        animation.play();
+        GameLoop animation = new GameLoop(myGame);
+        animation.start();
+    }
+
+    @Override
+    public void stop() {
+        myGame.stopSimulation();
+        myGame.finishRecordings();
+        myGame.exportProfile();
     }
 
     /**
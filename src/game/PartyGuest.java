@@ -1,64 +1,39 @@
 package game;
 
-import java.util.Random;
-import javafx.scene.Group;
-import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
+import java.nio.ByteBuffer;
 
-class PartyGuest extends Group {
+class PartyGuest {
 
-	private ImageView character;
-	private Circle fov;
+	public static final double SPRITE_SIZE = 25;
+	public static final double FOV_RADIUS = 80;
+	//the field of vision is centred half a sprite above where the monitor stands
+	public static final double FOV_OFFSET_Y = SPRITE_SIZE/2;
+	public static final int SAVE_SIZE = 6*8 + 1;
+
+	private String code;
 	private double x;
 	private double y;
+	private double prevX;
+	private double prevY;
 	private double xVol;
 	private double yVol;
-	private Circle originalZone;
-	private GuestCluster cluster;
 	private boolean safe;
-	private boolean inPlay;
 
 	/**
-	 * Makes a type of party guest.  Can make the player,
-	 * the monitor, or just a standard guest.
+	 * Makes a type of party guest.  Can make the player or
+	 * the monitor; the crowd itself lives in a GuestStore.  The
+	 * guest only holds simulation state; LevelView decides how
+	 * it is drawn.
 	 * @param code Code determines what type of guest is made.
 	 */
 	public PartyGuest(String code) {
-		//field of vision for the monitor
-		fov = new Circle();
-		switch(code) {
-			case "guest":
-				Image guestImage = new Image(getClass().getClassLoader().getResourceAsStream("guest.png"));
-				character = new ImageView(guestImage);
-				sizeAndScale(character);
-				this.getChildren().add(character);
-				//guest is still in the game and hasn't exited
-				inPlay = true;
-				break;
-			case "player":
-				Image playerImage = new Image(getClass().getClassLoader().getResourceAsStream("player.png"));
-				character = new ImageView(playerImage);
-				sizeAndScale(character);
-				this.getChildren().add(character);
-				break;
-			case "monitor":
-				Image monitorImage = new Image(getClass().getClassLoader().getResourceAsStream("monitor.png"));
-				character = new ImageView(monitorImage);
-				sizeAndScale(character);
-				this.getChildren().add(character);
-				fov.setRadius(80);
-				fov.setFill(Color.YELLOW);
-				fov.setOpacity(0.2);
-				this.getChildren().add(fov);
-				break;
-		}
+		this.code = code;
 	}
-
-	private void sizeAndScale(ImageView i) {
-		i.setPreserveRatio(true);
-		i.setFitHeight(25);
+	/**
+	 * @return the type of guest, used to pick its sprite
+	 */
+	public String getCode() {
+		return code;
 	}
 	/**
 	 * @return the x location of the guest
@@ -77,27 +52,46 @@ class PartyGuest extends Group {
 	 */
 	public void setX(double x) {
 		this.x = x;
-		character.setX(x - character.getBoundsInLocal().getWidth()/2);
-		fov.setCenterX(x);
 	}
 	/**
 	 * @param y the y location of the guest
 	 */
 	public void setY(double y) {
 		this.y = y;
-		character.setY(y - character.getBoundsInLocal().getHeight()/2);
-		fov.setCenterY(y - character.getBoundsInLocal().getHeight()/2);
 	}
 	/**
-	 * sets the initial location of the guest and the root node
+	 * sets the initial location of the guest
 	 * @param x the x location of the guest
 	 * @param y the y location of the guest
-	 * @param node the root node
 	 */
-	public void init(double x, double y, Group node) {
+	public void init(double x, double y) {
 		this.setX(x);
 		this.setY(y);
-		node.getChildren().add(this);
+		savePosition();
+	}
+	/**
+	 * remembers the current location as the one of the
+	 * previous step, for drawing in between steps
+	 */
+	public void savePosition() {
+		prevX = x;
+		prevY = y;
+	}
+	/**
+	 * @param alpha how far from the previous step to the
+	 * current one
+	 * @return the x location in between the two steps
+	 */
+	public double getX(double alpha) {
+		return prevX + (x - prevX)*alpha;
+	}
+	/**
+	 * @param alpha how far from the previous step to the
+	 * current one
+	 * @return the y location in between the two steps
+	 */
+	public double getY(double alpha) {
+		return prevY + (y - prevY)*alpha;
 	}
 	/**
 	 * @return the x velocity of the guest
@@ -124,33 +118,7 @@ class PartyGuest extends Group {
 	public void setyVol(double yVol) {
 		this.yVol = yVol;
 	}
-	/**
-	 * gets the guest's original placement area
-	 * @return guest's original placement area
-	 */
-	public Circle getOriginalZone() {
-		return originalZone;
-	}
-	/**
-	 * set a circle where the guest is
-	 * @param x x location of guest
-	 * @param y y location of guest
-	 */
-	public void setOriginalZone(double x, double y) {
-		originalZone = new Circle(x, y, 1);
-	}
-	/**
-	 *gets the ImageView of the guest
-	 * @return the ImageView of the guest
-	 */
-	public ImageView getCharacter() {
-		return character;
-	}
 
-	private double randomDouble(double range) {
-		Random r = new Random();
-		return 2*range*r.nextDouble() - range;
-	}
 	/**
 	 * Sets the guest's velocity vector toward a certain point
 	 * with a certain speed
@@ -178,9 +146,10 @@ class PartyGuest extends Group {
 	/**
 	 * Sets a random velocity for the guest
 	 * @param speed the magnitude of the random velocity
+	 * @param random the random choices of the level
 	 */
-	public void setRandomVol(double speed) {
-		setxVol(randomDouble(speed));
+	public void setRandomVol(double speed, LevelRandom random) {
+		setxVol(random.nextDouble(speed));
 		setyVol(Math.sqrt(speed*speed - this.getxVol()*this.getxVol()));
 	}
 	/**
@@ -190,18 +159,6 @@ class PartyGuest extends Group {
 		xVol = -xVol;
 		yVol = -yVol;
 	}
-	/**
-	 * @return the cluster the guest belongs to
-	 */
-	public GuestCluster getCluster() {
-		return cluster;
-	}
-	/**
-	 * @param cluster the cluster the guest belongs to
-	 */
-	public void setCluster(GuestCluster cluster) {
-		this.cluster = cluster;
-	}
 	/**
 	 * @return if the guest is safe from the monitor
 	 */
@@ -215,21 +172,36 @@ class PartyGuest extends Group {
 		this.safe = safe;
 	}
 	/**
-	 * @return the circular field of vision of the monitor
+	 * determines whether a point is inside the monitor's
+	 * circular field of vision, which is FOV_OFFSET_Y above it
+	 * @param x x location of the point
+	 * @param y y location of the point
+	 * @return if the point can be seen
 	 */
-	public Circle getFov() {
-		return fov;
+	public boolean fovContains(double x, double y) {
+		return distance(this.x, this.y - FOV_OFFSET_Y, x, y) <= FOV_RADIUS;
 	}
 	/**
-	 * @return if the guest is still in play
+	 * writes where the guest is, was and is heading,
+	 * and whether it is safe, in SAVE_SIZE bytes
+	 * @param out where the state is written
 	 */
-	public boolean isInPlay() {
-		return inPlay;
+	public void save(ByteBuffer out) {
+		out.putDouble(x).putDouble(y).putDouble(prevX).putDouble(prevY);
+		out.putDouble(xVol).putDouble(yVol);
+		out.put((byte) (safe ? 1 : 0));
 	}
 	/**
-	 * @param inPlay is the guest still in play
+	 * puts the guest back in a state written by save
+	 * @param in where the state is read from
 	 */
-	public void setInPlay(boolean inPlay) {
-		this.inPlay = inPlay;
+	public void restore(ByteBuffer in) {
+		x = in.getDouble();
+		y = in.getDouble();
+		prevX = in.getDouble();
+		prevY = in.getDouble();
+		xVol = in.getDouble();
+		yVol = in.getDouble();
+		safe = in.get() != 0;
 	}
 }
@@ -0,0 +1,91 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The actions the player can hold, one bit each, and a lock-free queue
+ * of timestamped presses and releases of them.  The JavaFX thread
+ * offers events as keys go down and up; the level takes them off at the
+ * start of a tick, applying every event stamped before the slice of time
+ * that tick covers ends, so an action always starts on a tick boundary and
+ * polling the held actions is a mask test.
+ *
+ * The queue is a ring of primitive slots with one producer and one
+ * consumer, each owning its own index, so neither side locks or
+ * allocates.  A full queue drops the event; at a few events per tick
+ * that never happens with CAPACITY slots.
+ */
+class PlayerInput {
+	public static final int RIGHT = 1;
+	public static final int LEFT = 2;
+	public static final int UP = 4;
+	public static final int DOWN = 8;
+	public static final int ALL = RIGHT | LEFT | UP | DOWN;
+	public static final int CAPACITY = 256;
+	private static final int PRESSED = 1 << 31;
+
+	private long[] times = new long[CAPACITY];
+	private int[] events = new int[CAPACITY];
+	//tail is written by the producer only, head by the consumer only
+	private AtomicLong tail = new AtomicLong();
+	private AtomicLong head = new AtomicLong();
+
+	/**
+	 * @param key the name of a key, as KeyCode.toString gives it
+	 * @return the action the key is bound to, or 0 if none
+	 */
+	public static int actionFor(String key) {
+		switch(key) {
+			case "RIGHT": case "D": return RIGHT;
+			case "LEFT": case "A": return LEFT;
+			case "UP": case "W": return UP;
+			case "DOWN": case "S": return DOWN;
+			default: return 0;
+		}
+	}
+
+	/**
+	 * queues a press or release.  only one thread may offer.
+	 * @param action the action, one of the bits above
+	 * @param pressed whether the action starts or stops
+	 * @param nanos when it happened, on the System.nanoTime clock
+	 * @return false if the queue was full and the event dropped
+	 */
+	public boolean offer(int action, boolean pressed, long nanos) {
+		long t = tail.get();
+		if(t - head.get() == CAPACITY) return false;
+		int slot = (int) (t & (CAPACITY - 1));
+		times[slot] = nanos;
+		events[slot] = pressed ? action | PRESSED : action;
+		//publishes the slot before the consumer can see it
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * applies the queued events stamped up to a moment to a
+	 * mask of held actions.  only one thread may poll.
+	 * @param held the actions held before the events
+	 * @param until the moment the slice of time of the tick
+	 * being started ends
+	 * @param profiler where to record how long each event
+	 * waited, or null
+	 * @return the actions held after the events
+	 */
+	public int poll(int held, long until, FrameProfiler profiler) {
+		long h = head.get();
+		long t = tail.get();
+		long now = profiler == null ? 0 : System.nanoTime();
+		while(h < t) {
+			int slot = (int) (h & (CAPACITY - 1));
+			if(times[slot] > until) break;
+			int event = events[slot];
+			if((event & PRESSED) != 0) held |= event & ~PRESSED;
+			else held &= ~event;
+			if(profiler != null) profiler.record(FrameProfiler.INPUT_LATENCY, now - times[slot]);
+			h++;
+		}
+		head.lazySet(h);
+		return held;
+	}
+}
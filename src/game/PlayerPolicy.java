@@ -0,0 +1,14 @@
+package game;
+
+/**
+ * An automated player.  Before every step it looks at the level and
+ * holds down the keys it wants, the same keys a person would press.
+ */
+interface PlayerPolicy {
+
+	/**
+	 * chooses the keys to hold for the next step
+	 * @param level the level being played
+	 */
+	void act(Level level);
+}
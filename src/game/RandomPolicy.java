@@ -0,0 +1,26 @@
+package game;
+
+/**
+ * Wanders: every half second it picks a new random direction, or
+ * stands still.  Its choices come from its own seed, so runs stay
+ * reproducible.
+ */
+class RandomPolicy implements PlayerPolicy {
+	public static final int TICKS_PER_CHOICE = 30;
+
+	private LevelRandom random;
+	private int ticks;
+
+	/**
+	 * @param seed the seed of the policy's choices
+	 */
+	public RandomPolicy(long seed) {
+		random = new LevelRandom(seed);
+	}
+
+	@Override
+	public void act(Level level) {
+		if(ticks++ % TICKS_PER_CHOICE != 0) return;
+		ScriptedPolicy.hold(level, 10*(random.nextInt(3) - 1), 10*(random.nextInt(3) - 1));
+	}
+}
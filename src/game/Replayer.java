@@ -0,0 +1,52 @@
+package game;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Plays recorded attempts back headless, as fast as the CPU allows.
+ * Every level is rebuilt from its seed and fed the recorded keys at
+ * the same ticks, so it retraces the original attempt exactly.
+ */
+class Replayer {
+
+	private Replayer() {
+	}
+
+	/**
+	 * replays a recording to its last tick, or until the level
+	 * is won or lost
+	 * @param recording the attempt to replay
+	 * @return the level in the state the attempt ended in
+	 */
+	public static Level replay(InputRecording recording) {
+		Level level = recording.buildLevel();
+		double dt = recording.getDt();
+		int change = 0;
+		for(int tick = 0; tick < recording.getTicks(); tick++) {
+			if(change < recording.getChanges() && recording.getChangeTick(change) == tick) {
+				level.setInput(recording.getChangeMask(change++));
+			}
+			level.step(dt);
+			if(level.lose() || level.win()) break;
+		}
+		return level;
+	}
+
+	/**
+	 * Replays every recording named on the command line and reports
+	 * how each attempt ended and how much faster than real time it ran.
+	 */
+	public static void main(String[] args) throws IOException {
+		for(String arg : args) {
+			InputRecording recording = InputRecording.read(Paths.get(arg));
+			long start = System.nanoTime();
+			Level level = replay(recording);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			String outcome = level.win() ? "won" : level.lose() ? "lost" : "unfinished";
+			System.out.printf("%s: %s at tick %d, %s, %.0f ticks/s (%.0fx real time)%n", arg, outcome,
+					level.getTick(), level.getScoreText(), level.getTick() / seconds,
+					level.getTick() * recording.getDt() / seconds);
+		}
+	}
+}
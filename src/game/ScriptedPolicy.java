@@ -0,0 +1,45 @@
+package game;
+
+/**
+ * Plays the way the game is meant to be played: walk into the punch
+ * bowl to poison it, then hide in the middle of the nearest safe
+ * cluster and wait, poisoning the bowl again whenever it is refilled.
+ */
+class ScriptedPolicy implements PlayerPolicy {
+	public static final double ARRIVED = 3;
+
+	@Override
+	public void act(Level level) {
+		PartyGuest player = level.getPlayer();
+		double targetX = level.getPunchBowlX();
+		double targetY = level.getPunchBowlY();
+		if(level.isPunchBowlPoisoned()) {
+			double best = Double.MAX_VALUE;
+			for(GuestCluster cluster : level.getClusterList()) {
+				double dx = cluster.getCenterX() - player.getX();
+				double dy = cluster.getCenterY() - player.getY();
+				if(cluster.isSafe() && dx*dx + dy*dy < best) {
+					best = dx*dx + dy*dy;
+					targetX = cluster.getCenterX();
+					targetY = cluster.getCenterY();
+				}
+			}
+		}
+		hold(level, targetX - player.getX(), targetY - player.getY());
+	}
+
+	/**
+	 * holds the actions that move the player along a direction
+	 * @param level the level being played
+	 * @param dx how far the player wants to go right
+	 * @param dy how far the player wants to go down
+	 */
+	public static void hold(Level level, double dx, double dy) {
+		int actions = 0;
+		if(dx > ARRIVED) actions |= PlayerInput.RIGHT;
+		if(dx < -ARRIVED) actions |= PlayerInput.LEFT;
+		if(dy > ARRIVED) actions |= PlayerInput.DOWN;
+		if(dy < -ARRIVED) actions |= PlayerInput.UP;
+		level.setInput(actions);
+	}
+}
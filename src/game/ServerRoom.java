@@ -0,0 +1,141 @@
+package game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * One party hosted by a GameServer: a Level, the connection of the
+ * player steering it, and the buffer its state is sent from.  The
+ * server's network thread offers the player's input to the level's
+ * PlayerInput queue, and the tick scheduler steps the room and sends
+ * the state, never on two threads at once, so the level belongs to
+ * whichever worker is ticking it.
+ *
+ * A lost or won party starts over with a new seed, like the game does.
+ * State is sent without blocking: if the player hasn't read the last
+ * frame yet, the new one is dropped instead of holding up the worker,
+ * and the player catches up with a later frame.  Frames are encoded
+ * by a SnapshotCodec against the last frame sent, so a dropped frame
+ * is never a baseline, and the first frame is a key frame.
+ */
+class ServerRoom implements Runnable {
+	private GameServer server;
+	private Level level;
+	private SocketChannel channel;
+	private LevelRandom seeds;
+	private ByteBuffer in = ByteBuffer.allocate(64);
+	private ByteBuffer out = ByteBuffer.allocateDirect(0);
+	private SnapshotCodec codec = new SnapshotCodec();
+	private long tick;
+	private long next;
+	private volatile boolean closed;
+	private volatile ScheduledFuture<?> future;
+
+	/**
+	 * @param server the server hosting the room
+	 * @param level the level played in the room
+	 * @param channel the connection of the player
+	 * @param seed the seed of the seeds the level starts over with
+	 */
+	public ServerRoom(GameServer server, Level level, SocketChannel channel, long seed) {
+		this.server = server;
+		this.level = level;
+		this.channel = channel;
+		seeds = new LevelRandom(seed);
+		out.flip();
+	}
+
+	/**
+	 * @param future the scheduled ticking of the room, cancelled
+	 * when the room closes
+	 */
+	public void setFuture(ScheduledFuture<?> future) {
+		this.future = future;
+		if(closed) future.cancel(false);
+	}
+
+	/**
+	 * reads what the player sent, two bytes per press or release
+	 * of an action, and queues them.  an action is one bit of
+	 * PlayerInput.ALL and is followed by 1 for a press or 0 for a
+	 * release; a player who sends anything else is hung up on.
+	 * only the server's network thread may call this.
+	 * @param now when the input arrived, on the System.nanoTime clock
+	 * @return false if the player has gone or sent bad input
+	 */
+	public boolean read(long now) throws IOException {
+		if(channel.read(in) < 0) return false;
+		in.flip();
+		while(in.remaining() >= GameServer.INPUT_SIZE) {
+			int action = in.get() & 0xff;
+			int pressed = in.get();
+			if(Integer.bitCount(action) != 1 || (action & ~PlayerInput.ALL) != 0 || (pressed & ~1) != 0) {
+				return false;
+			}
+			level.getInputQueue().offer(action, pressed != 0, now);
+		}
+		in.compact();
+		return true;
+	}
+
+	@Override
+	public void run() {
+		if(closed) return;
+		long start = System.nanoTime();
+		if(tick == 0) next = start;
+		level.pollInput(next + GameServer.STEP_NANOS);
+		level.step(Main.SECOND_DELAY);
+		tick++;
+		if(level.lose() || level.win()) level.reset(seeds.nextLong());
+		boolean sent = send();
+		server.recordTick(start - next, System.nanoTime() - start, sent);
+		next += GameServer.STEP_NANOS;
+	}
+
+	//writes the state of the level, or finishes the last frame and drops this one
+	private boolean send() {
+		try {
+			if(out.hasRemaining()) {
+				channel.write(out);
+				return false;
+			}
+			encode();
+			channel.write(out);
+			return true;
+		}
+		catch(IOException e) {
+			server.close(this);
+			return false;
+		}
+	}
+
+	//a frame is its length, then what changed since the last frame sent
+	private void encode() {
+		int size = 4 + codec.getMaxSize(level);
+		if(out.capacity() < size) out = ByteBuffer.allocateDirect(2*size);
+		out.clear();
+		out.putInt(0);
+		codec.encode(level, tick, out);
+		out.putInt(0, out.position() - 4);
+		out.flip();
+	}
+
+	/**
+	 * stops ticking the room and hangs up on the player
+	 * @return false if the room was already closed
+	 */
+	public synchronized boolean close() {
+		if(closed) return false;
+		closed = true;
+		if(future != null) future.cancel(false);
+		try {
+			channel.close();
+		}
+		catch(IOException e) {
+			//the player is gone either way
+		}
+		return true;
+	}
+}
@@ -0,0 +1,141 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps a Level on a thread of its own at a fixed rate, so a slow step
+ * never holds up drawing or input, and a slow frame never holds up the
+ * game.  Each step is run when its slice of time has passed, and a
+ * step that is late runs at once; catching up is capped so a long
+ * stall can't spiral.
+ *
+ * After every step the level is captured into a LevelSnapshot and
+ * published with one atomic swap.  Three snapshots take turns: the
+ * simulation captures into its own, swaps it for the one in the middle,
+ * and the JavaFX thread swaps the one it drew for the middle one only
+ * when that one is new.  Neither side ever waits on the other or
+ * touches a snapshot the other holds, and nothing is allocated per
+ * step.  Input crosses the other way through the level's PlayerInput
+ * queue.  While profiling, every PROFILE_STEPS steps the snapshot also
+ * carries a copy of the profiler, which only the simulation thread
+ * times into.
+ */
+class Simulation implements Runnable {
+	public static final int MAX_CATCH_UP_STEPS = 5;
+	public static final int PROFILE_STEPS = 30;
+
+	private Game game;
+	private Level level;
+	private double stepSeconds;
+	private long stepNanos;
+	private Thread thread;
+	private volatile boolean running;
+	private volatile FrameProfiler profiler;
+	private long sequence;
+	private LevelSnapshot back;
+	private AtomicReference<LevelSnapshot> ready;
+	private LevelSnapshot front;
+
+	/**
+	 * readies a level to be stepped.  the level must not be
+	 * touched by any other thread from now until stop returns,
+	 * except for offering input to its queue.
+	 * @param game what steps the level, and acts on winning and losing
+	 * @param level the level
+	 * @param stepSeconds the length of one step
+	 */
+	public Simulation(Game game, Level level, double stepSeconds) {
+		this.game = game;
+		this.level = level;
+		this.stepSeconds = stepSeconds;
+		stepNanos = (long) (stepSeconds*1e9);
+		long now = System.nanoTime();
+		front = new LevelSnapshot(level);
+		front.capture(level, sequence, now);
+		front.take();
+		ready = new AtomicReference<LevelSnapshot>(new LevelSnapshot(level));
+		back = new LevelSnapshot(level);
+	}
+
+	/**
+	 * starts stepping on a new thread
+	 */
+	public void start() {
+		running = true;
+		thread = new Thread(this, "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * stops stepping and waits for the step under way to finish
+	 */
+	public void stop() {
+		running = false;
+		if(thread == null) return;
+		LockSupport.unpark(thread);
+		boolean interrupted = false;
+		while(thread.isAlive()) {
+			try {
+				thread.join();
+			}
+			catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * @param profiler what to time each phase of a step with
+	 * from the next step on, or null to stop timing them.  the
+	 * profiler belongs to the simulation thread until stop returns
+	 * and must not be touched by any other thread meanwhile.
+	 */
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * @return the length of one step, in nanoseconds
+	 */
+	public long getStepNanos() {
+		return stepNanos;
+	}
+
+	@Override
+	public void run() {
+		long next = System.nanoTime() + stepNanos;
+		while(running) {
+			long now = System.nanoTime();
+			if(now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			//a stall longer than the cap is dropped rather than played back
+			if(now - next > MAX_CATCH_UP_STEPS*stepNanos) next = now;
+			FrameProfiler p = profiler;
+			level.setProfiler(p);
+			game.step(stepSeconds, next);
+			++sequence;
+			back.capture(level, sequence, next, sequence % PROFILE_STEPS == 0 ? p : null);
+			back = ready.getAndSet(back);
+			next += stepNanos;
+		}
+	}
+
+	/**
+	 * takes the snapshot of the latest step, if there is a new
+	 * one.  only the JavaFX thread may call this.
+	 * @return the snapshot to draw, which stays untouched until
+	 * the next call
+	 */
+	public LevelSnapshot latest() {
+		if(ready.get().isFresh()) {
+			front = ready.getAndSet(front);
+			front.take();
+		}
+		return front;
+	}
+}
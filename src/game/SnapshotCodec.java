@@ -0,0 +1,395 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the state of a Level as compact binary frames, each one only
+ * holding what changed since the frame before it, so a frame costs
+ * bytes in proportion to what moved rather than to the size of the
+ * crowd.  One codec encodes and another, on the receiving end, decodes;
+ * both keep the last state they agreed on as the baseline of the next
+ * frame.  Frames are written straight into and read straight out of
+ * ByteBuffers, direct or not, and nothing is allocated per frame.
+ *
+ * The state is kept quantized as ints in four blocks of entities with
+ * a fixed number of fields each: the score and the bowl; the player
+ * and the monitors; the safety, degen state, opacity and head count of
+ * every cluster; and the position, velocity and flags of every guest.
+ * Positions and velocities are kept to 1/QUANTUM of a pixel.
+ *
+ * A frame is a kind byte, the tick, the sizes of the blocks and then
+ * each block.  In a block, every entity that changed is written as the
+ * varint gap to it from the last one written, plus one, a byte with a
+ * bit set for each field that changed, and the zigzag varint change of
+ * each of those fields; a zero gap ends the block.  A key frame is
+ * encoded against a baseline of all zeros, so it can be decoded by a
+ * codec that has seen nothing before it.
+ */
+class SnapshotCodec {
+	public static final int QUANTUM = 16;
+	public static final int OPACITY_QUANTUM = 1000;
+	public static final byte DELTA = 0;
+	public static final byte KEY_FRAME = 1;
+	public static final int GLOBAL_FIELDS = 2;
+	public static final int MOVER_FIELDS = 2;
+	public static final int CLUSTER_FIELDS = 4;
+	public static final int GUEST_FIELDS = 5;
+	private static final int MAX_VARINT = 5;
+
+	private long tick;
+	private int[] globals = new int[GLOBAL_FIELDS];
+	private int moverCount;
+	private int[] movers = new int[0];
+	private int clusterCount;
+	private int[] clusters = new int[0];
+	private int guestCount;
+	private int[] guests = new int[0];
+	//the encoder's current state, compared against the baseline above
+	private int[] nextGlobals = new int[GLOBAL_FIELDS];
+	private int[] nextMovers = new int[0];
+	private int[] nextClusters = new int[0];
+	private int[] nextGuests = new int[0];
+	private boolean keyFrame = true;
+
+	/**
+	 * makes the next frame encoded a key frame
+	 */
+	public void requestKeyFrame() {
+		keyFrame = true;
+	}
+
+	/**
+	 * @return the most bytes the next frame of a level can take
+	 */
+	public int getMaxSize(Level level) {
+		int entries = 1 + 1 + level.getMonitorCount() + level.getClusters().length + level.getGuests().size();
+		int fields = GLOBAL_FIELDS + MOVER_FIELDS*(1 + level.getMonitorCount())
+				+ CLUSTER_FIELDS*level.getClusters().length + GUEST_FIELDS*level.getGuests().size();
+		return 1 + 2*MAX_VARINT + 3*MAX_VARINT + 4 + entries*(MAX_VARINT + 1) + fields*MAX_VARINT;
+	}
+
+	/**
+	 * writes the state of a level as a frame against the last
+	 * frame encoded, which becomes the baseline of the next one
+	 * @param level the level
+	 * @param tick the number of the frame
+	 * @param out where the frame is written, with at least
+	 * getMaxSize bytes remaining
+	 */
+	public void encode(Level level, long tick, ByteBuffer out) {
+		capture(level);
+		if(keyFrame) clearBaseline();
+		out.put(keyFrame ? KEY_FRAME : DELTA);
+		keyFrame = false;
+		this.tick = tick;
+		putVarLong(out, tick);
+		putVarInt(out, moverCount);
+		putVarInt(out, clusterCount);
+		putVarInt(out, guestCount);
+		putBlock(out, nextGlobals, globals, 1, GLOBAL_FIELDS);
+		putBlock(out, nextMovers, movers, moverCount, MOVER_FIELDS);
+		putBlock(out, nextClusters, clusters, clusterCount, CLUSTER_FIELDS);
+		putBlock(out, nextGuests, guests, guestCount, GUEST_FIELDS);
+	}
+
+	//quantizes the level into the next state, growing the arrays of both states to fit
+	private void capture(Level level) {
+		nextGlobals[0] = level.getGuestPoisoned();
+		nextGlobals[1] = level.isPunchBowlPoisoned() ? 1 : 0;
+		moverCount = 1 + level.getMonitorCount();
+		ensureMovers(moverCount);
+		putPosition(level.getPlayer(), 0);
+		for(int i = 0; i < level.getMonitorCount(); i++) putPosition(level.getMonitor(i), 1 + i);
+		GuestCluster[] levelClusters = level.getClusters();
+		clusterCount = levelClusters.length;
+		ensureClusters(clusterCount);
+		for(int i = 0; i < clusterCount; i++) {
+			GuestCluster cluster = levelClusters[i];
+			int at = CLUSTER_FIELDS*i;
+			nextClusters[at] = cluster.isSafe() ? 1 : 0;
+			nextClusters[at + 1] = cluster.isDegen() ? 1 : 0;
+			nextClusters[at + 2] = (int) Math.round(cluster.getOpacity()*OPACITY_QUANTUM);
+			nextClusters[at + 3] = cluster.getDormant();
+		}
+		GuestStore store = level.getGuests();
+		guestCount = store.size();
+		ensureGuests(guestCount);
+		for(int id = 0; id < guestCount; id++) {
+			int at = GUEST_FIELDS*id;
+			nextGuests[at] = quantize(store.getX(id));
+			nextGuests[at + 1] = quantize(store.getY(id));
+			nextGuests[at + 2] = quantize(store.getxVol(id));
+			nextGuests[at + 3] = quantize(store.getyVol(id));
+			nextGuests[at + 4] = store.getFlags(id);
+		}
+	}
+
+	private void putPosition(PartyGuest guest, int mover) {
+		nextMovers[MOVER_FIELDS*mover] = quantize(guest.getX());
+		nextMovers[MOVER_FIELDS*mover + 1] = quantize(guest.getY());
+	}
+
+	private static int quantize(double value) {
+		return (int) Math.round(value*QUANTUM);
+	}
+
+	private void ensureMovers(int count) {
+		if(movers.length >= MOVER_FIELDS*count) return;
+		movers = Arrays.copyOf(movers, MOVER_FIELDS*count);
+		nextMovers = Arrays.copyOf(nextMovers, MOVER_FIELDS*count);
+	}
+
+	private void ensureClusters(int count) {
+		if(clusters.length >= CLUSTER_FIELDS*count) return;
+		clusters = Arrays.copyOf(clusters, CLUSTER_FIELDS*count);
+		nextClusters = Arrays.copyOf(nextClusters, CLUSTER_FIELDS*count);
+	}
+
+	private void ensureGuests(int count) {
+		if(guests.length >= GUEST_FIELDS*count) return;
+		int capacity = Math.max(GUEST_FIELDS*count, 2*guests.length);
+		guests = Arrays.copyOf(guests, capacity);
+		nextGuests = Arrays.copyOf(nextGuests, capacity);
+	}
+
+	private void clearBaseline() {
+		Arrays.fill(globals, 0);
+		Arrays.fill(movers, 0);
+		Arrays.fill(clusters, 0);
+		Arrays.fill(guests, 0);
+	}
+
+	//writes the entities that changed, and makes the baseline the current state
+	private static void putBlock(ByteBuffer out, int[] next, int[] base, int count, int fields) {
+		int last = -1;
+		for(int entity = 0; entity < count; entity++) {
+			int at = fields*entity;
+			int changed = 0;
+			for(int f = 0; f < fields; f++) {
+				if(next[at + f] != base[at + f]) changed |= 1 << f;
+			}
+			if(changed == 0) continue;
+			putVarInt(out, entity - last);
+			out.put((byte) changed);
+			for(int f = 0; f < fields; f++) {
+				if((changed & 1 << f) == 0) continue;
+				putVarInt(out, zigzag(next[at + f] - base[at + f]));
+				base[at + f] = next[at + f];
+			}
+			last = entity;
+		}
+		out.put((byte) 0);
+	}
+
+	/**
+	 * applies a frame to the state decoded so far
+	 * @param in the frame, which is read up to its end
+	 * @return the number of the frame
+	 */
+	public long decode(ByteBuffer in) {
+		if(in.get() == KEY_FRAME) clearBaseline();
+		tick = getVarLong(in);
+		moverCount = getVarInt(in);
+		clusterCount = getVarInt(in);
+		guestCount = getVarInt(in);
+		ensureMovers(moverCount);
+		ensureClusters(clusterCount);
+		ensureGuests(guestCount);
+		getBlock(in, globals, GLOBAL_FIELDS);
+		getBlock(in, movers, MOVER_FIELDS);
+		getBlock(in, clusters, CLUSTER_FIELDS);
+		getBlock(in, guests, GUEST_FIELDS);
+		return tick;
+	}
+
+	private static void getBlock(ByteBuffer in, int[] base, int fields) {
+		int entity = -1;
+		int gap;
+		while((gap = getVarInt(in)) != 0) {
+			entity += gap;
+			int at = fields*entity;
+			int changed = in.get();
+			for(int f = 0; f < fields; f++) {
+				if((changed & 1 << f) != 0) base[at + f] += unzigzag(getVarInt(in));
+			}
+		}
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void putVarInt(ByteBuffer out, int value) {
+		while((value & ~0x7F) != 0) {
+			out.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static void putVarLong(ByteBuffer out, long value) {
+		while((value & ~0x7FL) != 0) {
+			out.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static int getVarInt(ByteBuffer in) {
+		int value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) return value;
+		}
+	}
+
+	private static long getVarLong(ByteBuffer in) {
+		long value = 0;
+		for(int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if(b >= 0) return value;
+		}
+	}
+
+	/**
+	 * @return the number of the last frame encoded or decoded
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return the number of guests who have been poisoned
+	 */
+	public int getGuestPoisoned() {
+		return globals[0];
+	}
+
+	/**
+	 * @return if the punch bowl is poisoned
+	 */
+	public boolean isPunchBowlPoisoned() {
+		return globals[1] != 0;
+	}
+
+	/**
+	 * @return the number of monitors
+	 */
+	public int getMonitorCount() {
+		return moverCount - 1;
+	}
+
+	/**
+	 * @return the x location of the player
+	 */
+	public double getPlayerX() {
+		return (double) movers[0] / QUANTUM;
+	}
+
+	/**
+	 * @return the y location of the player
+	 */
+	public double getPlayerY() {
+		return (double) movers[1] / QUANTUM;
+	}
+
+	/**
+	 * @return the x location of the i-th monitor
+	 */
+	public double getMonitorX(int i) {
+		return (double) movers[MOVER_FIELDS*(1 + i)] / QUANTUM;
+	}
+
+	/**
+	 * @return the y location of the i-th monitor
+	 */
+	public double getMonitorY(int i) {
+		return (double) movers[MOVER_FIELDS*(1 + i) + 1] / QUANTUM;
+	}
+
+	/**
+	 * @return the number of clusters
+	 */
+	public int getClusterCount() {
+		return clusterCount;
+	}
+
+	/**
+	 * @return if a cluster is safe
+	 */
+	public boolean isClusterSafe(int cluster) {
+		return clusters[CLUSTER_FIELDS*cluster] != 0;
+	}
+
+	/**
+	 * @return if a cluster is degenerating or regenerating
+	 */
+	public boolean isClusterDegen(int cluster) {
+		return clusters[CLUSTER_FIELDS*cluster + 1] != 0;
+	}
+
+	/**
+	 * @return the opacity a cluster should be drawn with
+	 */
+	public double getClusterOpacity(int cluster) {
+		return (double) clusters[CLUSTER_FIELDS*cluster + 2] / OPACITY_QUANTUM;
+	}
+
+	/**
+	 * @return the number of guests of a cluster only kept as a
+	 * head count
+	 */
+	public int getClusterDormant(int cluster) {
+		return clusters[CLUSTER_FIELDS*cluster + 3];
+	}
+
+	/**
+	 * @return one past the highest guest id in use
+	 */
+	public int getGuestCount() {
+		return guestCount;
+	}
+
+	/**
+	 * @return the x location of a guest
+	 */
+	public double getX(int id) {
+		return (double) guests[GUEST_FIELDS*id] / QUANTUM;
+	}
+
+	/**
+	 * @return the y location of a guest
+	 */
+	public double getY(int id) {
+		return (double) guests[GUEST_FIELDS*id + 1] / QUANTUM;
+	}
+
+	/**
+	 * @return the x velocity of a guest
+	 */
+	public double getxVol(int id) {
+		return (double) guests[GUEST_FIELDS*id + 2] / QUANTUM;
+	}
+
+	/**
+	 * @return the y velocity of a guest
+	 */
+	public double getyVol(int id) {
+		return (double) guests[GUEST_FIELDS*id + 3] / QUANTUM;
+	}
+
+	/**
+	 * @param flag one of the GuestStore flags
+	 * @return whether the guest has the flag set
+	 */
+	public boolean is(int id, int flag) {
+		return (guests[GUEST_FIELDS*id + 4] & flag) != 0;
+	}
+}
@@ -0,0 +1,162 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the room that buckets entities by the cell their
+ * position falls in.  Each cell is an intrusive doubly linked list over
+ * entity ids, so moving an entity between cells is constant time and a
+ * query only walks the cells around the point asked about.  Positions
+ * outside the room are clamped into the border cells.
+ */
+class SpatialGrid {
+	private static final int NONE = -1;
+
+	private double cellSize;
+	private int cols;
+	private int rows;
+	private int[] head;
+	private int[] next;
+	private int[] prev;
+	private int[] cellOf;
+	private int[] results;
+
+	/**
+	 * makes an empty grid
+	 * @param width the width of the room
+	 * @param height the height of the room
+	 * @param cellSize the side of a cell
+	 * @param capacity the number of entities to make room for
+	 */
+	public SpatialGrid(int width, int height, double cellSize, int capacity) {
+		this.cellSize = cellSize;
+		cols = Math.max(1, (int) Math.ceil(width / cellSize));
+		rows = Math.max(1, (int) Math.ceil(height / cellSize));
+		head = new int[cols*rows];
+		Arrays.fill(head, NONE);
+		next = new int[capacity];
+		prev = new int[capacity];
+		cellOf = new int[capacity];
+		Arrays.fill(cellOf, NONE);
+		results = new int[Math.max(16, capacity)];
+	}
+
+	private int col(double x) {
+		return Math.min(cols - 1, Math.max(0, (int) Math.floor(x / cellSize)));
+	}
+
+	private int row(double y) {
+		return Math.min(rows - 1, Math.max(0, (int) Math.floor(y / cellSize)));
+	}
+
+	private void ensureCapacity(int id) {
+		if(id < cellOf.length) return;
+		int capacity = Math.max(id + 1, cellOf.length*2);
+		next = Arrays.copyOf(next, capacity);
+		prev = Arrays.copyOf(prev, capacity);
+		int old = cellOf.length;
+		cellOf = Arrays.copyOf(cellOf, capacity);
+		Arrays.fill(cellOf, old, capacity, NONE);
+	}
+
+	/**
+	 * puts an entity in the grid, or moves it if it is
+	 * already there
+	 * @param id the id of the entity
+	 * @param x x location of the entity
+	 * @param y y location of the entity
+	 */
+	public void move(int id, double x, double y) {
+		ensureCapacity(id);
+		int cell = row(y)*cols + col(x);
+		if(cellOf[id] == cell) return;
+		remove(id);
+		cellOf[id] = cell;
+		prev[id] = NONE;
+		next[id] = head[cell];
+		if(head[cell] != NONE) prev[head[cell]] = id;
+		head[cell] = id;
+	}
+
+	/**
+	 * takes an entity out of the grid
+	 * @param id the id of the entity
+	 */
+	public void remove(int id) {
+		if(id >= cellOf.length || cellOf[id] == NONE) return;
+		if(prev[id] != NONE) next[prev[id]] = next[id];
+		else head[cellOf[id]] = next[id];
+		if(next[id] != NONE) prev[next[id]] = prev[id];
+		cellOf[id] = NONE;
+	}
+
+	/**
+	 * collects every entity in the cells overlapping a square
+	 * around a point.  Callers still test the exact shape they
+	 * care about on each result.
+	 * @param x x location of the point
+	 * @param y y location of the point
+	 * @param radius half the side of the square
+	 * @return the number of results, read with getResult
+	 */
+	public int query(double x, double y, double radius) {
+		int count = 0;
+		int maxRow = row(y + radius);
+		int maxCol = col(x + radius);
+		for(int r = row(y - radius); r <= maxRow; r++) {
+			for(int c = col(x - radius); c <= maxCol; c++) {
+				for(int id = head[r*cols + c]; id != NONE; id = next[id]) {
+					if(count == results.length) results = Arrays.copyOf(results, count*2);
+					results[count++] = id;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the most bytes save writes, until the grid grows
+	 */
+	public int getSaveSize() {
+		return 4 + 4*head.length + 12*cellOf.length;
+	}
+
+	/**
+	 * writes which cell every entity is in, in the order the
+	 * cells list them
+	 * @param out where the state is written
+	 */
+	public void save(ByteBuffer out) {
+		out.putInt(cellOf.length);
+		for(int cell = 0; cell < head.length; cell++) out.putInt(head[cell]);
+		for(int id = 0; id < cellOf.length; id++) {
+			out.putInt(next[id]).putInt(prev[id]).putInt(cellOf[id]);
+		}
+	}
+
+	/**
+	 * puts the grid back in a state written by save, so
+	 * queries find the same entities in the same order
+	 * @param in where the state is read from
+	 */
+	public void restore(ByteBuffer in) {
+		int capacity = in.getInt();
+		ensureCapacity(capacity - 1);
+		for(int cell = 0; cell < head.length; cell++) head[cell] = in.getInt();
+		for(int id = 0; id < capacity; id++) {
+			next[id] = in.getInt();
+			prev[id] = in.getInt();
+			cellOf[id] = in.getInt();
+		}
+		Arrays.fill(cellOf, capacity, cellOf.length, NONE);
+	}
+
+	/**
+	 * @param i an index below the count returned by the last query
+	 * @return the id of the i-th entity found by the last query
+	 */
+	public int getResult(int i) {
+		return results[i];
+	}
+}
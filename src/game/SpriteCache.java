@@ -0,0 +1,79 @@
+package game;
+
+import java.util.HashMap;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Decodes each sprite of the game once and packs them side by side
+ * into a single atlas image.  Every view shares the atlas and picks its
+ * sprite out of it by region, so restarting a level decodes nothing.
+ * Only used from the JavaFX thread.
+ */
+class SpriteCache {
+	public static final String[] CODES = {"guest", "player", "monitor"};
+
+	private static Image atlas;
+	private static HashMap<String, Rectangle2D> regions;
+
+	private SpriteCache() {
+	}
+
+	/**
+	 * @return the image every sprite is packed into
+	 */
+	public static Image getAtlas() {
+		if(atlas == null) pack();
+		return atlas;
+	}
+
+	/**
+	 * @param code the type of guest
+	 * @return where the sprite of the guest sits in the atlas
+	 */
+	public static Rectangle2D getRegion(String code) {
+		if(atlas == null) pack();
+		return regions.get(code);
+	}
+
+	/**
+	 * @param code the type of guest
+	 * @return the width of the sprite when scaled to
+	 * PartyGuest.SPRITE_SIZE high
+	 */
+	public static double getWidth(String code) {
+		Rectangle2D region = getRegion(code);
+		return region.getWidth() * PartyGuest.SPRITE_SIZE / region.getHeight();
+	}
+
+	private static void pack() {
+		Image[] images = new Image[CODES.length];
+		int width = 0;
+		int height = 0;
+		for(int i = 0; i < CODES.length; i++) {
+			images[i] = new Image(SpriteCache.class.getClassLoader().getResourceAsStream(CODES[i] + ".png"));
+			width += (int) images[i].getWidth();
+			height = Math.max(height, (int) images[i].getHeight());
+		}
+		WritableImage packed = new WritableImage(width, height);
+		PixelWriter writer = packed.getPixelWriter();
+		regions = new HashMap<String, Rectangle2D>();
+		int left = 0;
+		for(int i = 0; i < CODES.length; i++) {
+			int w = (int) images[i].getWidth();
+			int h = (int) images[i].getHeight();
+			PixelReader reader = images[i].getPixelReader();
+			for(int y = 0; y < h; y++) {
+				for(int x = 0; x < w; x++) {
+					writer.setArgb(left + x, y, reader.getArgb(x, y));
+				}
+			}
+			regions.put(CODES[i], new Rectangle2D(left, 0, w, h));
+			left += w;
+		}
+		atlas = packed;
+	}
+}
@@ -0,0 +1,223 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel counting in ticks.  Timers are int ids
+ * picked by the caller, each pending at most once, and every slot of
+ * the wheel is an intrusive doubly linked list over those ids, the way
+ * SpatialGrid buckets entities.  Scheduling and cancelling are constant
+ * time, and a tick only touches the timers that fire in it, plus the
+ * odd cascade of a coarser slot down into finer ones, so a pending
+ * timer costs nothing until it is due.
+ *
+ * Each of the LEVELS wheels has SLOTS slots; the first covers the next
+ * SLOTS ticks one tick per slot, the next SLOTS times as much, and so
+ * on.  A timer further away than all of them waits in the coarsest
+ * wheel and is placed again each time its slot comes round.
+ */
+class TimerWheel {
+	public static final int LEVELS = 4;
+	public static final int SLOT_BITS = 6;
+	public static final int SLOTS = 1 << SLOT_BITS;
+	private static final int NONE = -1;
+
+	private int now;
+	private int[] head;
+	private int[] next;
+	private int[] prev;
+	private int[] slotOf;
+	private int[] deadline;
+	private int[] fired;
+	private int firedCount;
+
+	/**
+	 * makes an empty wheel at tick 0
+	 * @param capacity the number of timer ids to make room for
+	 */
+	public TimerWheel(int capacity) {
+		head = new int[LEVELS*SLOTS];
+		Arrays.fill(head, NONE);
+		next = new int[capacity];
+		prev = new int[capacity];
+		slotOf = new int[capacity];
+		Arrays.fill(slotOf, NONE);
+		deadline = new int[capacity];
+		fired = new int[Math.max(16, capacity)];
+	}
+
+	private void ensureCapacity(int id) {
+		if(id < slotOf.length) return;
+		int capacity = Math.max(id + 1, slotOf.length*2);
+		next = Arrays.copyOf(next, capacity);
+		prev = Arrays.copyOf(prev, capacity);
+		deadline = Arrays.copyOf(deadline, capacity);
+		int old = slotOf.length;
+		slotOf = Arrays.copyOf(slotOf, capacity);
+		Arrays.fill(slotOf, old, capacity, NONE);
+	}
+
+	/**
+	 * @return the tick the wheel has advanced to
+	 */
+	public int now() {
+		return now;
+	}
+
+	/**
+	 * sets a timer to fire a number of ticks from now,
+	 * replacing its pending deadline if it has one
+	 * @param id the id of the timer
+	 * @param delay how many ticks from now it fires, at least 1
+	 */
+	public void schedule(int id, int delay) {
+		ensureCapacity(id);
+		cancel(id);
+		deadline[id] = now + Math.max(1, delay);
+		place(id);
+	}
+
+	//puts a timer in the finest wheel whose span still holds its deadline
+	private void place(int id) {
+		int when = deadline[id];
+		int level = 0;
+		while(level < LEVELS - 1 && (when >>> (SLOT_BITS*(level + 1))) != (now >>> (SLOT_BITS*(level + 1)))) {
+			level++;
+		}
+		int slot = level*SLOTS + ((when >>> (SLOT_BITS*level)) & (SLOTS - 1));
+		slotOf[id] = slot;
+		prev[id] = NONE;
+		next[id] = head[slot];
+		if(head[slot] != NONE) prev[head[slot]] = id;
+		head[slot] = id;
+	}
+
+	/**
+	 * stops a timer from firing
+	 * @param id the id of the timer
+	 */
+	public void cancel(int id) {
+		if(id >= slotOf.length || slotOf[id] == NONE) return;
+		if(prev[id] != NONE) next[prev[id]] = next[id];
+		else head[slotOf[id]] = next[id];
+		if(next[id] != NONE) prev[next[id]] = prev[id];
+		slotOf[id] = NONE;
+	}
+
+	/**
+	 * @param id the id of a timer
+	 * @return whether the timer has yet to fire
+	 */
+	public boolean isPending(int id) {
+		return id < slotOf.length && slotOf[id] != NONE;
+	}
+
+	/**
+	 * @param id the id of a pending timer
+	 * @return the number of ticks until the timer fires
+	 */
+	public int remaining(int id) {
+		return deadline[id] - now;
+	}
+
+	/**
+	 * cancels every timer and goes back to tick 0
+	 */
+	public void clear() {
+		Arrays.fill(head, NONE);
+		Arrays.fill(slotOf, NONE);
+		now = 0;
+		firedCount = 0;
+	}
+
+	/**
+	 * moves on one tick and collects the timers that fire in
+	 * it, in the order they were scheduled.  a fired timer is
+	 * no longer pending, so it may be scheduled again at once.
+	 * @return the number of timers fired, read with getFired
+	 */
+	public int advance() {
+		now++;
+		//the coarsest wheels first, so what they hand down is handed down again
+		for(int level = LEVELS - 1; level > 0; level--) {
+			if((now & ((1 << (SLOT_BITS*level)) - 1)) == 0) {
+				cascade(level*SLOTS + ((now >>> (SLOT_BITS*level)) & (SLOTS - 1)));
+			}
+		}
+		firedCount = 0;
+		int slot = now & (SLOTS - 1);
+		for(int id = oldest(slot); id != NONE; id = prev[id]) {
+			if(firedCount == fired.length) fired = Arrays.copyOf(fired, firedCount*2);
+			fired[firedCount++] = id;
+			slotOf[id] = NONE;
+		}
+		head[slot] = NONE;
+		return firedCount;
+	}
+
+	//timers are pushed on the front of a slot, so the oldest is at its back
+	private int oldest(int slot) {
+		int id = head[slot];
+		while(id != NONE && next[id] != NONE) id = next[id];
+		return id;
+	}
+
+	private void cascade(int slot) {
+		int id = oldest(slot);
+		head[slot] = NONE;
+		while(id != NONE) {
+			int newer = prev[id];
+			place(id);
+			id = newer;
+		}
+	}
+
+	/**
+	 * @return the most bytes save writes, until the wheel grows
+	 */
+	public int getSaveSize() {
+		return 4 + 4 + 4*head.length + 16*slotOf.length;
+	}
+
+	/**
+	 * writes the time and every pending timer
+	 * @param out where the state is written
+	 */
+	public void save(ByteBuffer out) {
+		out.putInt(now);
+		out.putInt(slotOf.length);
+		for(int slot = 0; slot < head.length; slot++) out.putInt(head[slot]);
+		for(int id = 0; id < slotOf.length; id++) {
+			out.putInt(next[id]).putInt(prev[id]).putInt(slotOf[id]).putInt(deadline[id]);
+		}
+	}
+
+	/**
+	 * puts the wheel back in a state written by save, so the
+	 * same timers fire in the same order
+	 * @param in where the state is read from
+	 */
+	public void restore(ByteBuffer in) {
+		now = in.getInt();
+		int capacity = in.getInt();
+		ensureCapacity(capacity - 1);
+		for(int slot = 0; slot < head.length; slot++) head[slot] = in.getInt();
+		for(int id = 0; id < capacity; id++) {
+			next[id] = in.getInt();
+			prev[id] = in.getInt();
+			slotOf[id] = in.getInt();
+			deadline[id] = in.getInt();
+		}
+		Arrays.fill(slotOf, capacity, slotOf.length, NONE);
+		firedCount = 0;
+	}
+
+	/**
+	 * @param i an index below the count returned by the last advance
+	 * @return the id of the i-th timer fired in the last advance
+	 */
+	public int getFired(int i) {
+		return fired[i];
+	}
+}
@@ -0,0 +1,86 @@
+package game;
+
+/**
+ * Many LevelEnvs of one level stepped in lockstep, for learners that
+ * act on a batch of environments at once.  Every call takes or fills
+ * one array for the whole batch, with environment i at index i, or at
+ * i times the observation size for observations.  An environment whose
+ * episode ends is reset at once with the next seed of the batch, so
+ * the batch always holds N running episodes; the done flag of that
+ * step tells the learner the episode before it ended.
+ */
+class VectorLevelEnv {
+	private LevelEnv[] envs;
+	private LevelRandom seeds = new LevelRandom(0);
+
+	/**
+	 * @param number which installed level to play
+	 * @param count the number of environments
+	 */
+	public VectorLevelEnv(int number, int count) {
+		envs = new LevelEnv[count];
+		for(int i = 0; i < count; i++) envs[i] = new LevelEnv(number);
+	}
+
+	/**
+	 * @return the number of environments
+	 */
+	public int size() {
+		return envs.length;
+	}
+
+	/**
+	 * @return the environment at an index
+	 */
+	public LevelEnv get(int i) {
+		return envs[i];
+	}
+
+	/**
+	 * @param frameSkip how many steps of the level each action is
+	 * held for, in every environment
+	 */
+	public void setFrameSkip(int frameSkip) {
+		for(LevelEnv env : envs) env.setFrameSkip(frameSkip);
+	}
+
+	/**
+	 * starts a new episode in every environment
+	 * @param seed the seed the seeds of the episodes follow from
+	 */
+	public void reset(long seed) {
+		seeds.setState(seed);
+		for(LevelEnv env : envs) env.reset(seeds.nextLong());
+	}
+
+	/**
+	 * takes one action in every environment
+	 * @param actions the action of each environment
+	 * @param rewards where the reward of each is written
+	 * @param dones where whether each episode ended is written
+	 */
+	public void step(int[] actions, double[] rewards, boolean[] dones) {
+		for(int i = 0; i < envs.length; i++) {
+			rewards[i] = envs[i].step(actions[i]);
+			dones[i] = envs[i].isDone();
+			if(dones[i]) envs[i].reset(seeds.nextLong());
+		}
+	}
+
+	/**
+	 * @return the number of doubles the observation of one
+	 * environment takes
+	 */
+	public int getObservationSize() {
+		return envs[0].getObservationSize();
+	}
+
+	/**
+	 * writes what every environment looks like now
+	 * @param out a buffer of size times getObservationSize doubles
+	 */
+	public void observe(double[] out) {
+		int size = getObservationSize();
+		for(int i = 0; i < envs.length; i++) envs[i].observe(out, i*size);
+	}
+}